@@ -0,0 +1,62 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+#extension GL_OES_EGL_image_external : require
+
+// Sobel edge detection on the camera texture (GPU counterpart of the EdgeDetector).
+
+precision mediump float;
+varying vec2 v_TexCoord;
+uniform float s_SplitterPosition;
+uniform vec2 u_TexelSize;
+uniform samplerExternalOES TexVideo;
+
+// Weights of the luminance (Y plane of the CPU image).
+const vec3 LUMA = vec3(0.299, 0.587, 0.114);
+
+// Equals the SOBEL_EDGE_THRESHOLD (128 * 128) of the EdgeDetector for values in [0, 1].
+const float EDGE_THRESHOLD = 0.252;
+
+const float EDGE = 1.0;
+const float NO_EDGE = 31.0 / 255.0;
+
+float luma(float dx, float dy) {
+  return dot(texture2D(TexVideo, v_TexCoord + vec2(dx, dy) * u_TexelSize).rgb, LUMA);
+}
+
+void main() {
+  if (v_TexCoord.x < s_SplitterPosition)
+  {
+    gl_FragColor = texture2D(TexVideo, v_TexCoord);
+  }
+  else
+  {
+    // Neighbour pixels around the current pixel.
+    float a00 = luma(-1.0, -1.0);
+    float a01 = luma( 0.0, -1.0);
+    float a02 = luma( 1.0, -1.0);
+    float a10 = luma(-1.0,  0.0);
+    float a12 = luma( 1.0,  0.0);
+    float a20 = luma(-1.0,  1.0);
+    float a21 = luma( 0.0,  1.0);
+    float a22 = luma( 1.0,  1.0);
+
+    float xSum = -a00 - (2.0 * a10) - a20 + a02 + (2.0 * a12) + a22;
+    float ySum = a00 + (2.0 * a01) + a02 - a20 - (2.0 * a21) - a22;
+
+    float edge = mix(NO_EDGE, EDGE, step(EDGE_THRESHOLD, (xSum * xSum) + (ySum * ySum)));
+    gl_FragColor = vec4(edge, edge, edge, 1.0);
+  }
+}
@@ -27,6 +27,10 @@ public class TaskRunner {
             final R result;
             try {
                 result = callable.call();
+                // avoid the detour via the main looper if nobody is interested in the result
+                if (callback == null) {
+                    return;
+                }
                 handler.post(() -> {
                     callback.onComplete(result);
                 });
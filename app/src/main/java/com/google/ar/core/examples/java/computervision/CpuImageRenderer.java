@@ -51,8 +51,27 @@ public class CpuImageRenderer {
   private int quadTexCoordAttrib;
   private int quadImgCoordAttrib;
   private int quadSplitterUniform;
+
+  // Program that computes the edge overlay from the camera texture on the GPU.
+  private int edgeProgram;
+
+  private int edgePositionAttrib;
+  private int edgeTexCoordAttrib;
+  private int edgeSplitterUniform;
+  private int edgeTexelSizeUniform;
   private int backgroundTextureId = -1;
-  private int overlayTextureId = -1;
+
+  // Overlay textures, the second one is only used for double buffered uploads: the next CPU image
+  // is uploaded into the texture that is not sampled by the previous draw call.
+  private final int[] overlayTextureIds = {-1, -1};
+  private final int[] overlayTextureWidths = new int[2];
+  private final int[] overlayTextureHeights = new int[2];
+  private int currentOverlay = 0;
+  private boolean doubleBufferedUpload = false;
+
+  // Smoothed CPU time of the overlay uploads.
+  private static final float UPLOAD_TIME_SMOOTHING = 0.1f;
+  private float smoothedUploadTimeMs = 0;
   private float splitterPosition = 0.0f;
 
   public int getTextureId() {
@@ -67,8 +86,8 @@ public class CpuImageRenderer {
    * @param context Needed to access shader source.
    */
   public void createOnGlThread(Context context) throws IOException {
-    int[] textures = new int[2];
-    GLES20.glGenTextures(2, textures, 0);
+    int[] textures = new int[3];
+    GLES20.glGenTextures(3, textures, 0);
 
     // Generate the background texture.
     backgroundTextureId = textures[0];
@@ -82,12 +101,16 @@ public class CpuImageRenderer {
     GLES20.glTexParameteri(
         GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
 
-    // Generate the CPU Image overlay texture.
-    overlayTextureId = textures[1];
-    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, overlayTextureId);
-    GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-    GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
-    GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+    // Generate the CPU Image overlay textures. Their storage is allocated on the first upload.
+    for (int i = 0; i < overlayTextureIds.length; i++) {
+      overlayTextureIds[i] = textures[1 + i];
+      overlayTextureWidths[i] = 0;
+      overlayTextureHeights[i] = 0;
+      GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, overlayTextureIds[i]);
+      GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+      GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+      GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+    }
 
     int numVertices = QUAD_COORDS.length / COORDS_PER_VERTEX;
     ByteBuffer bbCoords = ByteBuffer.allocateDirect(QUAD_COORDS.length * FLOAT_SIZE);
@@ -133,6 +156,28 @@ public class CpuImageRenderer {
     GLES20.glUniform1i(texLoc, 1);
 
     ShaderUtil.checkGLError(TAG, "Program parameters");
+
+    int edgeFragmentShader =
+        ShaderUtil.loadGLShader(
+            TAG, context, GLES20.GL_FRAGMENT_SHADER, "shaders/gpu_edge_screenquad.frag");
+
+    edgeProgram = GLES20.glCreateProgram();
+    GLES20.glAttachShader(edgeProgram, vertexShader);
+    GLES20.glAttachShader(edgeProgram, edgeFragmentShader);
+    GLES20.glLinkProgram(edgeProgram);
+    GLES20.glUseProgram(edgeProgram);
+
+    ShaderUtil.checkGLError(TAG, "Edge program creation");
+
+    edgePositionAttrib = GLES20.glGetAttribLocation(edgeProgram, "a_Position");
+    edgeTexCoordAttrib = GLES20.glGetAttribLocation(edgeProgram, "a_TexCoord");
+    edgeSplitterUniform = GLES20.glGetUniformLocation(edgeProgram, "s_SplitterPosition");
+    edgeTexelSizeUniform = GLES20.glGetUniformLocation(edgeProgram, "u_TexelSize");
+
+    texLoc = GLES20.glGetUniformLocation(edgeProgram, "TexVideo");
+    GLES20.glUniform1i(texLoc, 0);
+
+    ShaderUtil.checkGLError(TAG, "Edge program parameters");
   }
 
   /**
@@ -154,6 +199,24 @@ public class CpuImageRenderer {
     splitterPosition = position;
   }
 
+  /**
+   * Enables double buffered uploads of the CPU image, i.e. alternating between two overlay
+   * textures, such that an upload never has to wait for the GPU to finish sampling the texture of
+   * the previous frame.
+   */
+  public void setDoubleBufferedUpload(boolean doubleBuffered) {
+    doubleBufferedUpload = doubleBuffered;
+  }
+
+  public boolean isDoubleBufferedUpload() {
+    return doubleBufferedUpload;
+  }
+
+  /** Gets the smoothed CPU time of uploading the CPU image into the overlay texture. */
+  public float getSmoothedUploadTimeMs() {
+    return smoothedUploadTimeMs;
+  }
+
   /**
    * Draws the AR background image. The image will be drawn such that virtual content rendered with
    * the matrices provided by {@link Frame#getViewMatrix(float[], int)} and {@link
@@ -179,8 +242,83 @@ public class CpuImageRenderer {
 
     // Apply overlay image buffer
     if (processedImageBytesGrayscale != null) {
-      GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
-      GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, overlayTextureId);
+      uploadOverlay(imageWidth, imageHeight, processedImageBytesGrayscale);
+    }
+
+    updateTextureCoordinates(frame);
+
+    // Rest of the draw code is shared between the two functions.
+    drawWithoutCpuImage();
+  }
+
+  /**
+   * Draws the AR background image with an edge overlay that is computed by a fragment shader from
+   * the camera texture. Unlike {@link #drawWithCpuImage}, no CPU image needs to be acquired and
+   * uploaded.
+   *
+   * @param frame The last {@code Frame} returned by {@link Session#update()}.
+   * @param textureWidth The width of the camera texture.
+   * @param textureHeight The height of the camera texture.
+   */
+  public void drawWithGpuEdgeDetection(Frame frame, int textureWidth, int textureHeight) {
+    updateTextureCoordinates(frame);
+
+    GLES20.glDisable(GLES20.GL_DEPTH_TEST);
+    GLES20.glDepthMask(false);
+
+    GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+    GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, backgroundTextureId);
+
+    GLES20.glUseProgram(edgeProgram);
+
+    GLES20.glVertexAttribPointer(
+        edgePositionAttrib, COORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadCoords);
+
+    GLES20.glUniform1f(edgeSplitterUniform, splitterPosition);
+
+    // Distance between neighbour pixels in texture coordinates.
+    GLES20.glUniform2f(edgeTexelSizeUniform, 1.0f / textureWidth, 1.0f / textureHeight);
+
+    GLES20.glVertexAttribPointer(
+        edgeTexCoordAttrib, TEXCOORDS_PER_VERTEX, GLES20.GL_FLOAT, false, 0, quadTexCoords);
+
+    GLES20.glEnableVertexAttribArray(edgePositionAttrib);
+    GLES20.glEnableVertexAttribArray(edgeTexCoordAttrib);
+
+    GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
+
+    GLES20.glDisableVertexAttribArray(edgePositionAttrib);
+    GLES20.glDisableVertexAttribArray(edgeTexCoordAttrib);
+
+    GLES20.glDepthMask(true);
+    GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+
+    ShaderUtil.checkGLError(TAG, "Draw edges");
+  }
+
+  /**
+   * Draws the background without acquiring a CPU image, e.g. if no edge overlay is shown. The
+   * previously uploaded CPU image (if any) is kept as overlay.
+   *
+   * @param frame The last {@code Frame} returned by {@link Session#update()}.
+   */
+  public void drawWithoutCpuImage(Frame frame) {
+    updateTextureCoordinates(frame);
+    drawWithoutCpuImage();
+  }
+
+  private void uploadOverlay(int imageWidth, int imageHeight, ByteBuffer pixels) {
+    long start = System.nanoTime();
+
+    int target = doubleBufferedUpload ? 1 - currentOverlay : 0;
+    GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, overlayTextureIds[target]);
+
+    // Rows of the grayscale image are tightly packed (width is not necessarily a multiple of 4).
+    GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 1);
+
+    if (overlayTextureWidths[target] != imageWidth || overlayTextureHeights[target] != imageHeight) {
+      // (Re)allocate the texture storage only if the image size changed.
       GLES20.glTexImage2D(
           GLES20.GL_TEXTURE_2D,
           0,
@@ -190,13 +328,25 @@ public class CpuImageRenderer {
           0,
           GLES20.GL_LUMINANCE,
           GLES20.GL_UNSIGNED_BYTE,
-          processedImageBytesGrayscale);
+          pixels);
+      overlayTextureWidths[target] = imageWidth;
+      overlayTextureHeights[target] = imageHeight;
+    } else {
+      GLES20.glTexSubImage2D(
+          GLES20.GL_TEXTURE_2D,
+          0,
+          0,
+          0,
+          imageWidth,
+          imageHeight,
+          GLES20.GL_LUMINANCE,
+          GLES20.GL_UNSIGNED_BYTE,
+          pixels);
     }
+    currentOverlay = target;
 
-    updateTextureCoordinates(frame);
-
-    // Rest of the draw code is shared between the two functions.
-    drawWithoutCpuImage();
+    float uploadTimeMs = (System.nanoTime() - start) / 1e6f;
+    smoothedUploadTimeMs += UPLOAD_TIME_SMOOTHING * (uploadTimeMs - smoothedUploadTimeMs);
   }
 
   /**
@@ -209,6 +359,9 @@ public class CpuImageRenderer {
     GLES20.glDisable(GLES20.GL_DEPTH_TEST);
     GLES20.glDepthMask(false);
 
+    GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
+    GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, overlayTextureIds[currentOverlay]);
+
     GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
     GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, backgroundTextureId);
 
@@ -16,13 +16,46 @@
 package com.google.ar.core.examples.java.computervision;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
-/** Detects edges from input YUV image. */
+/**
+ * Detects edges from input YUV image.
+ *
+ * <p>All buffers are reused between frames, i.e. no memory is allocated per frame as long as the
+ * image size does not change. The rows of the image are processed in stripes in parallel on the
+ * common fork-join pool.
+ */
 public class EdgeDetector {
   private byte[] inputPixels = new byte[0]; // Reuse java byte array to avoid multiple allocations.
+  private ByteBuffer outputBuffer = ByteBuffer.allocateDirect(0);
 
   private static final int SOBEL_EDGE_THRESHOLD = 128 * 128;
 
+  private static final byte EDGE = (byte) 0xFF;
+  private static final byte NO_EDGE = (byte) 0x1F;
+
+  // One task per stripe of rows, reused for every frame.
+  private final StripeTask[] stripes;
+
+  // Current image, set before the stripe tasks are forked.
+  private int width;
+  private int height;
+  private int stride;
+
+  public EdgeDetector() {
+    this(ForkJoinPool.getCommonPoolParallelism() + 1);
+  }
+
+  /** @param stripeCount number of row stripes that are processed in parallel. */
+  public EdgeDetector(int stripeCount) {
+    stripes = new StripeTask[Math.max(1, stripeCount)];
+    for (int i = 0; i < stripes.length; i++) {
+      stripes[i] = new StripeTask();
+    }
+  }
+
   /**
    * Process a grayscale image using the Sobel edge detector.
    *
@@ -31,7 +64,8 @@ public class EdgeDetector {
    * @param stride image stride (number of bytes per row, equals to width if no row padding).
    * @param input bytes of the image, assumed single channel grayscale of size [stride * height].
    * @return bytes of the processed image, where the byte value is the strength of the edge at that
-   *     pixel. Number of bytes is width * height, row padding (if any) is removed.
+   *     pixel. Number of bytes is width * height, row padding (if any) is removed. The returned
+   *     direct buffer is reused, it is only valid until the next call.
    */
   public synchronized ByteBuffer detect(int width, int height, int stride, ByteBuffer input) {
     // Reallocate input byte array if its size is different from the required size.
@@ -39,11 +73,16 @@ public class EdgeDetector {
       inputPixels = new byte[stride * height];
     }
 
-    // Allocate a new output byte array.
-    byte[] outputPixels = new byte[width * height];
+    // Reallocate the output if the image size changed. Border pixels are never written and stay 0.
+    if (width * height != outputBuffer.capacity()) {
+      outputBuffer = ByteBuffer.allocateDirect(width * height).order(ByteOrder.nativeOrder());
+    }
 
-    // Copy input buffer into a java array for ease of access. This is not the most optimal
-    // way to process an image, but used here for simplicity.
+    this.width = width;
+    this.height = height;
+    this.stride = stride;
+
+    // Copy input buffer into the java array with a single bulk copy.
     input.position(0);
 
     // Note: On certain devices with specific resolution where the stride is not equal to the width.
@@ -52,21 +91,52 @@ public class EdgeDetector {
     // be better to transfer the exact amount of image bytes to the destination bytes.
     input.get(inputPixels, 0, input.capacity());
 
-    // Detect edges.
-    for (int j = 1; j < height - 1; j++) {
-      for (int i = 1; i < width - 1; i++) {
-        // Offset of the pixel at [i, j] of the input image.
-        int offset = (j * stride) + i;
+    // Detect edges, the first stripe is processed on the calling thread.
+    int rows = height - 2;
+    int stripeCount = Math.max(1, Math.min(stripes.length, rows));
+    for (int s = 0; s < stripeCount; s++) {
+      stripes[s].setRows(1 + (rows * s) / stripeCount, 1 + (rows * (s + 1)) / stripeCount);
+    }
+    for (int s = 1; s < stripeCount; s++) {
+      stripes[s].reinitialize();
+      stripes[s].fork();
+    }
+    detectRows(stripes[0].fromRow, stripes[0].toRow);
+    for (int s = 1; s < stripeCount; s++) {
+      stripes[s].join();
+    }
+
+    // The stripes wrote straight into the direct buffer that can be uploaded to a texture.
+    outputBuffer.clear();
+    return outputBuffer;
+  }
+
+  /**
+   * Detects the edges of the rows [fromRow, toRow). The stripes write disjoint ranges of the output
+   * buffer with absolute puts, its position is not touched.
+   */
+  private void detectRows(int fromRow, int toRow) {
+    final byte[] in = inputPixels;
+    final ByteBuffer out = outputBuffer;
+    final int stride = this.stride;
+    final int width = this.width;
+
+    for (int j = fromRow; j < toRow; j++) {
+      // Offset of the pixel at [1, j] of the input and output image.
+      int offset = (j * stride) + 1;
+      int outOffset = (j * width) + 1;
+      int rowEnd = offset + width - 2;
 
+      for (; offset < rowEnd; offset++, outOffset++) {
         // Neighbour pixels around the pixel at [i, j].
-        int a00 = inputPixels[offset - stride - 1];
-        int a01 = inputPixels[offset - stride];
-        int a02 = inputPixels[offset - stride + 1];
-        int a10 = inputPixels[offset - 1];
-        int a12 = inputPixels[offset + 1];
-        int a20 = inputPixels[offset + stride - 1];
-        int a21 = inputPixels[offset + stride];
-        int a22 = inputPixels[offset + stride + 1];
+        int a00 = in[offset - stride - 1];
+        int a01 = in[offset - stride];
+        int a02 = in[offset - stride + 1];
+        int a10 = in[offset - 1];
+        int a12 = in[offset + 1];
+        int a20 = in[offset + stride - 1];
+        int a21 = in[offset + stride];
+        int a22 = in[offset + stride + 1];
 
         // Sobel X filter:
         //   -1, 0, 1,
@@ -80,14 +150,29 @@ public class EdgeDetector {
         //   -1, -2, -1
         int ySum = a00 + (2 * a01) + a02 - a20 - (2 * a21) - a22;
 
-        if ((xSum * xSum) + (ySum * ySum) > SOBEL_EDGE_THRESHOLD) {
-          outputPixels[(j * width) + i] = (byte) 0xFF;
-        } else {
-          outputPixels[(j * width) + i] = (byte) 0x1F;
-        }
+        // Branch-free threshold: the sign bit of (threshold - magnitude) is set for edges, which
+        // turns 0x1F into 0xFF.
+        int edgeMask = (SOBEL_EDGE_THRESHOLD - ((xSum * xSum) + (ySum * ySum))) >> 31;
+        out.put(outOffset, (byte) (NO_EDGE | (edgeMask & (EDGE & ~NO_EDGE))));
       }
     }
+  }
+
+  private final class StripeTask extends RecursiveAction {
+    // Never serialized, declared since RecursiveAction is Serializable.
+    private static final long serialVersionUID = 1L;
+
+    private int fromRow;
+    private int toRow;
 
-    return ByteBuffer.wrap(outputPixels);
+    void setRows(int fromRow, int toRow) {
+      this.fromRow = fromRow;
+      this.toRow = toRow;
+    }
+
+    @Override
+    protected void compute() {
+      detectRows(fromRow, toRow);
+    }
   }
 }
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import android.widget.TextView;
+
+import java.text.DecimalFormatSymbols;
+
+/**
+ * Text of the heads-up display (debug info on top of the camera view). The text is rebuilt in
+ * place for every update, i.e. the same StringBuilder and char buffer are reused and numbers are
+ * appended without String.format.
+ *
+ * Must only be used on the UI thread.
+ */
+public class HudText {
+
+    private final StringBuilder text = new StringBuilder(1024);
+    private char[] chars = new char[1024];
+
+    private final char decimalSeparator;
+
+    public HudText() {
+        this(DecimalFormatSymbols.getInstance().getDecimalSeparator());
+    }
+
+    public HudText(char decimalSeparator) {
+        this.decimalSeparator = decimalSeparator;
+    }
+
+    public HudText clear() {
+        text.setLength(0);
+        return this;
+    }
+
+    public HudText append(CharSequence s) {
+        text.append(s);
+        return this;
+    }
+
+    public HudText append(long value) {
+        text.append(value);
+        return this;
+    }
+
+    /** Appends the value rounded to the given number of decimals (at most 6). */
+    public HudText append(double value, int decimals) {
+        NumberAppender.appendFixed(text, value, decimals, decimalSeparator);
+        return this;
+    }
+
+    /** Appends a byte count in a human readable unit (B, KB, MB, GB). */
+    public HudText appendBytes(long bytes) {
+        if (bytes < 1024) {
+            return append(bytes).append(" B");
+        } else if (bytes < 1024 * 1024) {
+            return append(bytes / 1024.0, 1).append(" KB");
+        } else if (bytes < 1024L * 1024 * 1024) {
+            return append(bytes / (1024.0 * 1024), 1).append(" MB");
+        }
+        return append(bytes / (1024.0 * 1024 * 1024), 2).append(" GB");
+    }
+
+    public HudText newLine() {
+        text.append('\n');
+        return this;
+    }
+
+    public int length() {
+        return text.length();
+    }
+
+    /** Shows the current text, the view keeps a reference to the reused char buffer. */
+    public void showOn(TextView view) {
+        int length = text.length();
+        if (length > chars.length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        text.getChars(0, length, chars, 0);
+        view.setText(chars, 0, length);
+    }
+
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import com.google.ar.core.AugmentedImageDatabase;
+import com.google.ar.core.Session;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Builds the augmented image database of a landmark venue folder (images and a
+ * {@link LandmarkImageList}) at runtime, such that landmarks can be changed without rebuilding
+ * the app.
+ *
+ * The images are decoded by parallel workers and added to the database in list order (addImage
+ * is not thread safe and the order defines the image indices). The built database is serialized
+ * into a cache file named after the venue and the content hash of the folder, later launches
+ * only deserialize it. The content hash reads all images, hence it is stored next to the cache
+ * together with the cheap metadata hash of the folder (image sizes and modification times) and
+ * only computed again if the metadata changes.
+ *
+ * Must not be called on the main thread.
+ */
+public class LandmarkDatabaseBuilder {
+
+    private static final String TAG = LandmarkDatabaseBuilder.class.getSimpleName();
+
+    private static final String CACHE_SUFFIX = ".imgdb";
+    // <venue>.imgkey: metadata hash; content hash
+    private static final String KEY_SUFFIX = ".imgkey";
+
+    // images are downsampled to at most this size (ARCore only needs about 300 px)
+    private static final int MAX_IMAGE_SIZE = 1024;
+
+    private final File cacheDir;
+    private final int workerCount;
+
+    /**
+     * @param cacheDir folder of the serialized databases.
+     */
+    public LandmarkDatabaseBuilder(File cacheDir) {
+        this(cacheDir, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    public LandmarkDatabaseBuilder(File cacheDir, int workerCount) {
+        this.cacheDir = cacheDir;
+        this.workerCount = workerCount;
+    }
+
+    /** Loads the database of the venue folder from the cache or builds (and caches) it. */
+    public AugmentedImageDatabase load(Session session, File venueDir) throws IOException {
+        LandmarkImageList imageList = LandmarkImageList.read(venueDir);
+        String venue = venueDir.getName();
+        File cacheFile = new File(cacheDir, venue + "-" + contentHash(imageList, venue) + CACHE_SUFFIX);
+
+        if (cacheFile.exists()) {
+            try (InputStream inputStream = new FileInputStream(cacheFile)) {
+                return AugmentedImageDatabase.deserialize(session, inputStream);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not read cached landmark database " + cacheFile + ", rebuilding it", e);
+            }
+        }
+
+        AugmentedImageDatabase db = build(session, imageList);
+        writeCache(db, venue, cacheFile);
+        return db;
+    }
+
+    // content hash of the folder, only hashes the images if their metadata changed
+    private String contentHash(LandmarkImageList imageList, String venue) throws IOException {
+        String metadataHash = imageList.metadataHash();
+        File keyFile = new File(cacheDir, venue + KEY_SUFFIX);
+        if (keyFile.exists()) {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(keyFile), StandardCharsets.UTF_8))) {
+                String[] key = String.valueOf(reader.readLine()).split("; ");
+                if (key.length == 2 && key[0].equals(metadataHash)) {
+                    return key[1];
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Could not read " + keyFile, e);
+            }
+        }
+
+        String contentHash = imageList.contentHash();
+        if (cacheDir.exists() || cacheDir.mkdirs()) {
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(keyFile), StandardCharsets.UTF_8)) {
+                writer.write(metadataHash + "; " + contentHash + "\n");
+            } catch (IOException e) {
+                Log.w(TAG, "Could not write " + keyFile, e);
+            }
+        }
+        return contentHash;
+    }
+
+    private AugmentedImageDatabase build(Session session, LandmarkImageList imageList) throws IOException {
+        List<LandmarkImageList.Entry> entries = imageList.getEntries();
+        AugmentedImageDatabase db = new AugmentedImageDatabase(session);
+
+        // at most this number of decoded bitmaps is kept in memory
+        int window = 2 * workerCount;
+        ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+        try {
+            List<Future<Bitmap>> bitmaps = new ArrayList<>(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                File file = imageList.getImageFile(entries.get(i));
+                bitmaps.add(i < window ? executor.submit(() -> decode(file)) : null);
+            }
+
+            for (int i = 0; i < entries.size(); i++) {
+                if (i + window < entries.size()) {
+                    File file = imageList.getImageFile(entries.get(i + window));
+                    bitmaps.set(i + window, executor.submit(() -> decode(file)));
+                }
+
+                LandmarkImageList.Entry entry = entries.get(i);
+                Bitmap bitmap = bitmaps.get(i).get();
+                bitmaps.set(i, null);
+                // throws an exception if the image has not enough features
+                if (entry.widthMeters > 0) {
+                    db.addImage(entry.name, bitmap, entry.widthMeters);
+                } else {
+                    db.addImage(entry.name, bitmap);
+                }
+                bitmap.recycle();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while building the landmark database", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not decode a landmark image", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return db;
+    }
+
+    private static Bitmap decode(File file) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+
+        int sampleSize = 1;
+        while (Math.max(options.outWidth, options.outHeight) / (sampleSize * 2) >= MAX_IMAGE_SIZE) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+
+        Bitmap bitmap = BitmapFactory.decodeFile(file.getPath(), options);
+        if (bitmap == null) {
+            throw new IOException("Could not decode " + file);
+        }
+        return bitmap;
+    }
+
+    // serializes the database and removes outdated databases of the venue
+    private void writeCache(AugmentedImageDatabase db, String venue, File cacheFile) {
+        if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+            Log.w(TAG, "Could not create " + cacheDir);
+            return;
+        }
+        File tmpFile = new File(cacheDir, cacheFile.getName() + ".tmp");
+        try (OutputStream outputStream = new FileOutputStream(tmpFile)) {
+            db.serialize(outputStream);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not cache the landmark database", e);
+            tmpFile.delete();
+            return;
+        }
+        if (!tmpFile.renameTo(cacheFile)) {
+            Log.w(TAG, "Could not cache the landmark database in " + cacheFile);
+            tmpFile.delete();
+            return;
+        }
+
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                String name = f.getName();
+                // <venue>-<sha-256 hex>.imgdb
+                boolean ofVenue = name.startsWith(venue + "-") && name.endsWith(CACHE_SUFFIX)
+                        && name.length() == cacheFile.getName().length();
+                if (ofVenue && !f.equals(cacheFile)) {
+                    f.delete();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Image list of a landmark venue folder, in the format of the arcoreimg tool (as
+ * myimages.imgdb-imglist.txt): one image per line
+ *   name|image path relative to the folder|physical width in meters (optional)
+ * The position within the list is the index of the image within the augmented image database.
+ */
+public class LandmarkImageList {
+
+    public static final String FILE_NAME = "imglist.txt";
+
+    public static class Entry {
+        public final String name;
+        public final String path;
+        // physical width in meters, 0 if unknown
+        public final float widthMeters;
+
+        Entry(String name, String path, float widthMeters) {
+            this.name = name;
+            this.path = path;
+            this.widthMeters = widthMeters;
+        }
+    }
+
+    private final File dir;
+    private final List<Entry> entries;
+
+    private LandmarkImageList(File dir, List<Entry> entries) {
+        this.dir = dir;
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    /** Reads the image list of the given venue folder. */
+    public static LandmarkImageList read(File dir) throws IOException {
+        try (InputStream inputStream = new FileInputStream(new File(dir, FILE_NAME))) {
+            return new LandmarkImageList(dir, parse(inputStream));
+        }
+    }
+
+    static List<Entry> parse(InputStream imageList) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(imageList, StandardCharsets.UTF_8));
+        List<Entry> entries = new ArrayList<>();
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber ++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            String[] columns = line.split("\\|");
+            if (columns.length < 2) {
+                throw new IOException("Invalid image list entry in line " + lineNumber + ": " + line);
+            }
+            float width = 0;
+            if (columns.length > 2 && !columns[2].trim().isEmpty()) {
+                try {
+                    width = Float.parseFloat(columns[2].trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid image width in line " + lineNumber + ": " + line);
+                }
+            }
+            entries.add(new Entry(columns[0].trim(), columns[1].trim(), width));
+        }
+        return entries;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public File getImageFile(Entry entry) {
+        return new File(dir, entry.path);
+    }
+
+    /**
+     * SHA-256 (hex) of the image list and of all images in list order, i.e. changes whenever an
+     * image, its name, width or position changes. Reads every image, see {@link #metadataHash()}.
+     */
+    public String contentHash() throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[64 * 1024];
+        for (Entry entry : entries) {
+            String key = entry.name + "|" + entry.path + "|" + entry.widthMeters + "\n";
+            digest.update(key.getBytes(StandardCharsets.UTF_8));
+            update(digest, getImageFile(entry), buffer);
+        }
+        return hex(digest.digest());
+    }
+
+    /**
+     * SHA-256 (hex) of the image list file and of the size and modification time of all images,
+     * i.e. a cheap key that changes whenever the content hash may have changed.
+     */
+    public String metadataHash() throws IOException {
+        MessageDigest digest = sha256();
+        update(digest, new File(dir, FILE_NAME), new byte[4096]);
+        for (Entry entry : entries) {
+            File file = getImageFile(entry);
+            String key = entry.path + "|" + file.length() + "|" + file.lastModified() + "\n";
+            digest.update(key.getBytes(StandardCharsets.UTF_8));
+        }
+        return hex(digest.digest());
+    }
+
+    private static MessageDigest sha256() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, File file, byte[] buffer) throws IOException {
+        try (InputStream inputStream = new FileInputStream(file)) {
+            int n;
+            while ((n = inputStream.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import com.google.ar.core.AugmentedImage;
+import com.google.ar.core.Pose;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides which landmark (augmented image) poses are logged and keeps statistics of the observed
+ * poses per landmark. The per landmark state (statistics and logged pose) is stored in the
+ * LandmarkRegistry.
+ *
+ * A landmark pose is logged when it is observed for the first time, when its tracking method
+ * changes, or when it moved by more than the translation or rotation epsilon since it was logged
+ * the last time. Landmarks that are not in view keep their last known pose and are hence not
+ * logged again on every frame.
+ */
+public class LandmarkObserver {
+
+    private final float translationEpsilon;
+    // cosine of half the rotation epsilon, compared with the quaternion dot product
+    private final float rotationEpsilonCos;
+
+    private final float[] loggedPose = new float[7];
+
+    private long observedCount = 0;
+    private long loggedCount = 0;
+
+    /**
+     * @param translationEpsilon minimal translation (in meters) of a landmark to be logged again.
+     * @param rotationEpsilon minimal rotation (in radians) of a landmark to be logged again.
+     */
+    public LandmarkObserver(float translationEpsilon, float rotationEpsilon) {
+        this.translationEpsilon = translationEpsilon;
+        this.rotationEpsilonCos = (float) Math.cos(rotationEpsilon / 2);
+    }
+
+    /**
+     * Observes the current pose of an active landmark of the registry.
+     *
+     * @param updated whether the landmark was updated by ARCore in the current frame. Only updated
+     *                poses that are fully tracked are added to the statistics.
+     * @return whether the pose should be logged.
+     */
+    public boolean observe(LandmarkRegistry registry, int index, boolean updated) {
+        observedCount ++;
+
+        AugmentedImage image = registry.getImage(index);
+        AugmentedImage.TrackingMethod method = image.getTrackingMethod();
+        Pose pose = image.getCenterPose();
+
+        if (updated && method == AugmentedImage.TrackingMethod.FULL_TRACKING) {
+            registry.getStats(index).add(pose.tx(), pose.ty(), pose.tz(), pose.qx(), pose.qy(), pose.qz(), pose.qw());
+        }
+
+        AugmentedImage.TrackingMethod loggedMethod = registry.getLoggedMethod(index);
+        if (loggedMethod != null && method == loggedMethod) {
+            registry.getLoggedPose(index, loggedPose);
+            if (!moved(loggedPose, pose)) {
+                return false;
+            }
+        }
+
+        registry.setLogged(index, method, pose);
+        loggedCount ++;
+        return true;
+    }
+
+    private boolean moved(float[] p, Pose pose) {
+        float dx = pose.tx() - p[0];
+        float dy = pose.ty() - p[1];
+        float dz = pose.tz() - p[2];
+        if (dx * dx + dy * dy + dz * dz > translationEpsilon * translationEpsilon) {
+            return true;
+        }
+        // rotation angle between two unit quaternions: 2 * acos(|q1 . q2|)
+        float dot = pose.qx() * p[3] + pose.qy() * p[4] + pose.qz() * p[5] + pose.qw() * p[6];
+        return Math.abs(dot) < rotationEpsilonCos;
+    }
+
+    public long getObservedCount() {
+        return observedCount;
+    }
+
+    public long getLoggedCount() {
+        return loggedCount;
+    }
+
+    /**
+     * Summary of all active landmarks (one line each) with the pose statistics of the fully tracked
+     * poses, the time the landmark was first seen and the number of sightings.
+     *
+     * The covariance columns are the upper triangle of the 6x6 pose covariance (see LandmarkStats),
+     * e.g. cov_xrx is the covariance between the x translation and the x component of the rotation
+     * vector.
+     */
+    public List<String> getStatsLines(LandmarkRegistry registry) {
+        String[] axes = {"x", "y", "z", "rx", "ry", "rz"};
+        StringBuilder header = new StringBuilder("index; count; tx; ty; tz; qx; qy; qz; qw");
+        for (int a = 0; a < LandmarkStats.DIMENSION; a++) {
+            for (int b = a; b < LandmarkStats.DIMENSION; b++) {
+                header.append("; cov_").append(axes[a]).append(axes[b]);
+            }
+        }
+        header.append("; first_seen; sightings\n");
+
+        List<String> lines = new ArrayList<>();
+        lines.add(header.toString());
+
+        double[] q = new double[4];
+        for (int i = registry.nextActive(0); i >= 0; i = registry.nextActive(i + 1)) {
+            LandmarkStats stats = registry.getStats(i);
+            stats.getMeanRotation(q);
+            StringBuilder line = new StringBuilder(String.format("%d; %d; %f; %f; %f; %f; %f; %f; %f",
+                    i, stats.getCount(),
+                    stats.getMean(0), stats.getMean(1), stats.getMean(2),
+                    q[0], q[1], q[2], q[3]));
+            for (int a = 0; a < LandmarkStats.DIMENSION; a++) {
+                for (int b = a; b < LandmarkStats.DIMENSION; b++) {
+                    line.append(String.format("; %e", stats.getCovariance(a, b)));
+                }
+            }
+            line.append("; ").append(registry.getFirstSeenNanos(i))
+                    .append("; ").append(registry.getSightingCount(i)).append('\n');
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import com.google.ar.core.AugmentedImage;
+import com.google.ar.core.Pose;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Landmarks (augmented images) that were detected during the recording, indexed by their index
+ * within the augmented image database.
+ *
+ * Lookups are constant time array accesses, iteration only visits active landmarks, i.e. those
+ * that were tracked at least once:
+ *   for (int i = registry.nextActive(0); i >= 0; i = registry.nextActive(i + 1)) { ... }
+ *
+ * Besides the detection state, the registry keeps the pose statistics of each landmark and the
+ * pose that was logged last (see LandmarkObserver).
+ *
+ * The registry is only accessed by the thread that processes the frames (GL or tracking thread).
+ */
+public class LandmarkRegistry {
+
+    private static final int POSE_SIZE = 7;
+
+    private final BitSet active = new BitSet();
+    // landmarks that are currently fully tracked (for counting the sightings)
+    private final BitSet fullyTracked = new BitSet();
+
+    private AugmentedImage[] images;
+    private long[] firstSeenNanos;
+    private int[] sightingCounts;
+    private LandmarkStats[] stats;
+    private AugmentedImage.TrackingMethod[] loggedMethods;
+    private float[] loggedPoses;
+
+    /** @param capacity number of images of the database (the registry grows if required). */
+    public LandmarkRegistry(int capacity) {
+        images = new AugmentedImage[capacity];
+        firstSeenNanos = new long[capacity];
+        sightingCounts = new int[capacity];
+        stats = new LandmarkStats[capacity];
+        loggedMethods = new AugmentedImage.TrackingMethod[capacity];
+        loggedPoses = new float[capacity * POSE_SIZE];
+    }
+
+    /** Counts the images listed in an image list file (one image per line) of an image database. */
+    public static int countImages(InputStream imageList) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(imageList, StandardCharsets.UTF_8));
+        int count = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.trim().isEmpty()) {
+                count ++;
+            }
+        }
+        return count;
+    }
+
+    private void ensureCapacity(int index) {
+        if (index < images.length) {
+            return;
+        }
+        int capacity = Math.max(index + 1, images.length * 2);
+        images = Arrays.copyOf(images, capacity);
+        firstSeenNanos = Arrays.copyOf(firstSeenNanos, capacity);
+        sightingCounts = Arrays.copyOf(sightingCounts, capacity);
+        stats = Arrays.copyOf(stats, capacity);
+        loggedMethods = Arrays.copyOf(loggedMethods, capacity);
+        loggedPoses = Arrays.copyOf(loggedPoses, capacity * POSE_SIZE);
+    }
+
+    /**
+     * Updates the landmark of an image that is tracked in the current frame.
+     *
+     * @return true if the landmark was seen for the first time.
+     */
+    public boolean update(AugmentedImage image, long timestamp) {
+        int index = image.getIndex();
+        ensureCapacity(index);
+
+        boolean first = !active.get(index);
+        if (first) {
+            active.set(index);
+            firstSeenNanos[index] = timestamp;
+            stats[index] = new LandmarkStats();
+        }
+        images[index] = image;
+
+        // a sighting starts whenever the landmark (re-)enters full tracking
+        boolean full = image.getTrackingMethod() == AugmentedImage.TrackingMethod.FULL_TRACKING;
+        if (full && !fullyTracked.get(index)) {
+            sightingCounts[index] ++;
+        }
+        fullyTracked.set(index, full);
+        return first;
+    }
+
+    public boolean isActive(int index) {
+        return active.get(index);
+    }
+
+    /** Index of the next active landmark starting at fromIndex (inclusive), -1 if there is none. */
+    public int nextActive(int fromIndex) {
+        return active.nextSetBit(fromIndex);
+    }
+
+    /** Augmented image of the given landmark as of its last update, null if not active. */
+    public AugmentedImage getImage(int index) {
+        return index < images.length ? images[index] : null;
+    }
+
+    public long getFirstSeenNanos(int index) {
+        return firstSeenNanos[index];
+    }
+
+    public int getSightingCount(int index) {
+        return sightingCounts[index];
+    }
+
+    /** Pose statistics of an active landmark. */
+    public LandmarkStats getStats(int index) {
+        return stats[index];
+    }
+
+    /** Tracking method of the pose that was logged last, null if none was logged yet. */
+    public AugmentedImage.TrackingMethod getLoggedMethod(int index) {
+        return loggedMethods[index];
+    }
+
+    /** Copies the pose (tx, ty, tz, qx, qy, qz, qw) that was logged last into out. */
+    public void getLoggedPose(int index, float[] out) {
+        System.arraycopy(loggedPoses, index * POSE_SIZE, out, 0, POSE_SIZE);
+    }
+
+    public void setLogged(int index, AugmentedImage.TrackingMethod method, Pose pose) {
+        loggedMethods[index] = method;
+        int offset = index * POSE_SIZE;
+        loggedPoses[offset] = pose.tx();
+        loggedPoses[offset + 1] = pose.ty();
+        loggedPoses[offset + 2] = pose.tz();
+        loggedPoses[offset + 3] = pose.qx();
+        loggedPoses[offset + 4] = pose.qy();
+        loggedPoses[offset + 5] = pose.qz();
+        loggedPoses[offset + 6] = pose.qw();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+/**
+ * Running statistics of the observed poses of a single landmark: number of observations, the
+ * mean translation, the mean rotation and the 6x6 covariance of the pose (Welford's online
+ * algorithm).
+ *
+ * The covariance is computed over (tx, ty, tz, rx, ry, rz), where (rx, ry, rz) is the rotation
+ * vector (axis times angle in radians) of the observed rotation relative to the first observed
+ * rotation, i.e. the rotation is linearized around the first observation. This is accurate as
+ * long as the observed rotations of a landmark stay within a few degrees of each other, which is
+ * the case for a static landmark.
+ */
+public class LandmarkStats {
+
+    /** Dimension of the pose covariance: translation (x, y, z) and rotation vector (x, y, z). */
+    public static final int DIMENSION = 6;
+
+    private long count = 0;
+
+    // mean of the translation and of the rotation vector
+    private final double[] mean = new double[DIMENSION];
+    // co-moments of the pose (upper triangle, row by row)
+    private final double[] coMoment = new double[DIMENSION * (DIMENSION + 1) / 2];
+
+    // sum of the sign aligned quaternions (q and -q describe the same rotation)
+    private final double[] quaternionSum = new double[4];
+    // first observed rotation, the rotation vectors are relative to it
+    private final double[] reference = new double[4];
+
+    private final double[] sample = new double[DIMENSION];
+    private final double[] delta = new double[DIMENSION];
+
+    public void add(float tx, float ty, float tz, float qx, float qy, float qz, float qw) {
+        if (count == 0) {
+            reference[0] = qx;
+            reference[1] = qy;
+            reference[2] = qz;
+            reference[3] = qw;
+        }
+        count ++;
+
+        sample[0] = tx;
+        sample[1] = ty;
+        sample[2] = tz;
+        setRotationVector(qx, qy, qz, qw);
+
+        for (int i = 0; i < DIMENSION; i++) {
+            delta[i] = sample[i] - mean[i];
+            mean[i] += delta[i] / count;
+        }
+        int index = 0;
+        for (int i = 0; i < DIMENSION; i++) {
+            for (int j = i; j < DIMENSION; j++) {
+                coMoment[index ++] += delta[i] * (sample[j] - mean[j]);
+            }
+        }
+
+        double dot = quaternionSum[0] * qx + quaternionSum[1] * qy + quaternionSum[2] * qz + quaternionSum[3] * qw;
+        double sign = dot < 0 ? -1 : 1;
+        quaternionSum[0] += sign * qx;
+        quaternionSum[1] += sign * qy;
+        quaternionSum[2] += sign * qz;
+        quaternionSum[3] += sign * qw;
+    }
+
+    // sample[3..5] = rotation vector of reference^-1 * q
+    private void setRotationVector(double qx, double qy, double qz, double qw) {
+        double rx = -reference[0];
+        double ry = -reference[1];
+        double rz = -reference[2];
+        double rw = reference[3];
+        double w = rw * qw - rx * qx - ry * qy - rz * qz;
+        double x = rw * qx + rx * qw + ry * qz - rz * qy;
+        double y = rw * qy - rx * qz + ry * qw + rz * qx;
+        double z = rw * qz + rx * qy - ry * qx + rz * qw;
+        // q and -q describe the same rotation, use the shorter one
+        if (w < 0) {
+            w = -w;
+            x = -x;
+            y = -y;
+            z = -z;
+        }
+        double sin = Math.sqrt(x * x + y * y + z * z);
+        // angle / sin(angle / 2), which tends to 2 for small angles
+        double scale = sin < 1e-12 ? 2 : 2 * Math.atan2(sin, w) / sin;
+        sample[3] = x * scale;
+        sample[4] = y * scale;
+        sample[5] = z * scale;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /** Mean translation along the given axis (0 = x, 1 = y, 2 = z). */
+    public double getMean(int axis) {
+        return mean[axis];
+    }
+
+    /**
+     * Sample covariance between the given pose components (0 to 2 = translation x, y, z in
+     * meters, 3 to 5 = rotation vector x, y, z in radians).
+     */
+    public double getCovariance(int axis1, int axis2) {
+        if (count < 2) {
+            return 0;
+        }
+        int i = Math.min(axis1, axis2);
+        int j = Math.max(axis1, axis2);
+        // index within the upper triangle
+        int index = i * DIMENSION - (i * (i - 1)) / 2 + (j - i);
+        return coMoment[index] / (count - 1);
+    }
+
+    /** Normalized mean rotation as quaternion (x, y, z, w). */
+    public void getMeanRotation(double[] out) {
+        double norm = Math.sqrt(quaternionSum[0] * quaternionSum[0] + quaternionSum[1] * quaternionSum[1]
+                + quaternionSum[2] * quaternionSum[2] + quaternionSum[3] * quaternionSum[3]);
+        for (int i = 0; i < 4; i++) {
+            out[i] = norm > 0 ? quaternionSum[i] / norm : (i == 3 ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+/**
+ * Allocation-free latency statistics (count, mean, min, max and a log2 histogram for
+ * percentiles). Recording must happen on a single thread, other threads may read the values
+ * (e.g. for display), which are then only approximately consistent.
+ */
+public class LatencyStats {
+
+    // bucket i holds latencies in [2^(i-1), 2^i) microseconds, bucket 0 holds latencies < 1 us
+    private static final int BUCKET_COUNT = 40;
+
+    private final long[] histogram = new long[BUCKET_COUNT];
+
+    private volatile long count = 0;
+    private long sumNanos = 0;
+    private long minNanos = Long.MAX_VALUE;
+    private long maxNanos = 0;
+
+    // latencies below zero indicate that the compared clocks are not based on the same time base
+    private long negativeCount = 0;
+
+    public void record(long latencyNanos) {
+        if (latencyNanos < 0) {
+            negativeCount ++;
+            latencyNanos = 0;
+        }
+
+        long micros = latencyNanos / 1000;
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        histogram[Math.min(bucket, BUCKET_COUNT - 1)] ++;
+
+        sumNanos += latencyNanos;
+        if (latencyNanos < minNanos) {
+            minNanos = latencyNanos;
+        }
+        if (latencyNanos > maxNanos) {
+            maxNanos = latencyNanos;
+        }
+        count ++;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getNegativeCount() {
+        return negativeCount;
+    }
+
+    public double getMeanMicros() {
+        long n = count;
+        return n == 0 ? 0 : sumNanos / 1000.0 / n;
+    }
+
+    public double getMinMicros() {
+        return count == 0 ? 0 : minNanos / 1000.0;
+    }
+
+    public double getMaxMicros() {
+        return maxNanos / 1000.0;
+    }
+
+    /**
+     * Upper bound of the given percentile (e.g. 0.99) in microseconds, accurate up to a factor of
+     * two due to the logarithmic histogram.
+     */
+    public long getPercentileMicros(double percentile) {
+        long n = count;
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile * n);
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            cumulative += histogram[i];
+            if (cumulative >= rank) {
+                return 1L << i;
+            }
+        }
+        return 1L << (BUCKET_COUNT - 1);
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Recording file that is written through memory-mapped segments.
+ *
+ * The file is grown in preallocated segments that are mapped into memory, records are directly
+ * encoded into the mapped pages without any intermediate buffer or system call. Since the mapping
+ * is shared, the written pages reach the file even if the app is killed. The first segment is
+ * small (1 MB by default) and every further one twice as large as the previous one (up to 64 MB by
+ * default), hence small files only map little memory and large ones only a few segments. Only the
+ * current segment is referenced, previous mappings are released by the garbage collector.
+ *
+ * Next to the data file, a small commit file (e.g. poses.csv.commit) is mapped as well. It holds
+ * the length of the data that ends with a complete record and is updated on every
+ * {@link #commit()}. A regular {@link #close()} truncates the data file to that length and removes
+ * the commit file. If the app is killed instead, {@link #recover(File)} does the same on the next
+ * start, which removes torn records and the unused part of the preallocated segment. Readers of
+ * pulled sessions apply {@link #recoverFile(File)} before parsing a file.
+ *
+ * Since the app is stopped by killing it, the file can be trimmed to its committed length while it
+ * is still written (see {@link #trim()}). Until {@link #preallocate()} is called, records are then
+ * buffered and appended to the file on commit instead of being written into a mapped segment.
+ */
+public class MappedRecordFile implements RecordSink {
+
+    public static final int DEFAULT_INITIAL_SEGMENT_SIZE = 1024 * 1024;
+    public static final int DEFAULT_MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+    public static final String COMMIT_SUFFIX = ".commit";
+
+    // buffer of the records that are written while the file is trimmed
+    private static final int TRIMMED_BUFFER_SIZE = 64 * 1024;
+
+    // commit file layout: magic (int) | unused (int) | committed length (long)
+    // the length is 8 byte aligned, hence it is stored atomically and can not be torn by a kill
+    private static final int COMMIT_MAGIC = 0x544d4d43; // "CMMT" when written little endian
+    private static final int COMMIT_FILE_SIZE = 4 + 4 + 8;
+    private static final int COMMIT_LENGTH_OFFSET = 8;
+
+    private final File file;
+    private final File commitFile;
+    private final int initialSegmentSize;
+    private final int maxSegmentSize;
+
+    private final RandomAccessFile dataAccess;
+    private final FileChannel dataChannel;
+    private final RandomAccessFile commitAccess;
+    private final MappedByteBuffer commitHeader;
+
+    // currently mapped segment (null while trimmed) and its offset within the file
+    private MappedByteBuffer segment;
+    private long segmentStart;
+    private int segmentCount = 0;
+
+    // records written while trimmed, they are appended at segmentStart on commit
+    private ByteBuffer pending;
+
+    private volatile long bytesWritten = 0;
+    private volatile long committedLength = 0;
+
+    public MappedRecordFile(File file) throws IOException {
+        this(file, DEFAULT_INITIAL_SEGMENT_SIZE, DEFAULT_MAX_SEGMENT_SIZE);
+    }
+
+    public MappedRecordFile(File file, int initialSegmentSize, int maxSegmentSize) throws IOException {
+        this.file = file;
+        this.commitFile = commitFileOf(file);
+        this.initialSegmentSize = initialSegmentSize;
+        this.maxSegmentSize = Math.max(initialSegmentSize, maxSegmentSize);
+
+        commitAccess = new RandomAccessFile(commitFile, "rw");
+        commitHeader = commitAccess.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, COMMIT_FILE_SIZE);
+        commitHeader.order(ByteOrder.LITTLE_ENDIAN);
+        commitHeader.putInt(0, COMMIT_MAGIC);
+        commitHeader.putLong(COMMIT_LENGTH_OFFSET, 0);
+
+        dataAccess = new RandomAccessFile(file, "rw");
+        dataAccess.setLength(0);
+        dataChannel = dataAccess.getChannel();
+
+        mapSegment(0);
+    }
+
+    private static File commitFileOf(File file) {
+        return new File(file.getPath() + COMMIT_SUFFIX);
+    }
+
+    private void mapSegment(long start) throws IOException {
+        int size = segment == null ? initialSegmentSize
+                : (int) Math.min((long) segment.capacity() * 2, maxSegmentSize);
+        // mapping beyond the end of the file grows the file to the end of the segment
+        segment = dataChannel.map(FileChannel.MapMode.READ_WRITE, start, size);
+        segmentStart = start;
+        segmentCount ++;
+    }
+
+    // buffer the records are currently written to
+    private ByteBuffer output() {
+        return segment != null ? segment : pending;
+    }
+
+    // continues with the next segment or appends the pending records if the output is full
+    private ByteBuffer nextOutput() throws IOException {
+        if (segment != null) {
+            mapSegment(segmentStart + segment.position());
+        } else {
+            writePending();
+        }
+        return output();
+    }
+
+    private void writePending() throws IOException {
+        pending.flip();
+        while (pending.hasRemaining()) {
+            segmentStart += dataChannel.write(pending, segmentStart);
+        }
+        pending.clear();
+    }
+
+    @Override
+    public void write(CharSequence text) throws IOException {
+        int i = 0;
+        int length = text.length();
+        ByteBuffer out = output();
+        while (i < length) {
+            i = Utf8.encode(text, i, length, out);
+            if (i < length) {
+                out = nextOutput();
+            }
+        }
+        bytesWritten = segmentStart + out.position();
+    }
+
+    @Override
+    public void write(ByteBuffer bytes) throws IOException {
+        ByteBuffer out = output();
+        while (bytes.hasRemaining()) {
+            if (!out.hasRemaining()) {
+                out = nextOutput();
+            }
+            int n = Math.min(bytes.remaining(), out.remaining());
+            int limit = bytes.limit();
+            bytes.limit(bytes.position() + n);
+            out.put(bytes);
+            bytes.limit(limit);
+        }
+        bytesWritten = segmentStart + out.position();
+    }
+
+    @Override
+    public void commit() throws IOException {
+        if (segment == null) {
+            writePending();
+        }
+        committedLength = bytesWritten;
+        commitHeader.putLong(COMMIT_LENGTH_OFFSET, committedLength);
+    }
+
+    @Override
+    public void rollback(long length) throws IOException {
+        if (length < committedLength || length > bytesWritten) {
+            throw new IllegalArgumentException("Invalid rollback to " + length + " (committed: "
+                    + committedLength + ", written: " + bytesWritten + ")");
+        }
+        if (length >= segmentStart) {
+            output().position((int) (length - segmentStart));
+        } else if (segment != null) {
+            // the discarded bytes beyond the new segment are removed on close or recovery
+            mapSegment(length);
+        } else {
+            pending.clear();
+            dataChannel.truncate(length);
+            segmentStart = length;
+        }
+        bytesWritten = length;
+    }
+
+    /**
+     * Releases the current segment and truncates the file to the committed length. Records that
+     * are written afterwards are appended to the file on commit (or once the buffer is full), no
+     * space is reserved at the end of the file until {@link #preallocate()} is called.
+     */
+    @Override
+    public void trim() throws IOException {
+        segment = null;
+        if (pending == null) {
+            pending = ByteBuffer.allocate(TRIMMED_BUFFER_SIZE);
+        }
+        pending.clear();
+        segmentStart = committedLength;
+        bytesWritten = committedLength;
+        dataChannel.truncate(committedLength);
+    }
+
+    /** Maps a new segment after the records written so far, see {@link #trim()}. */
+    @Override
+    public void preallocate() throws IOException {
+        if (segment != null) {
+            return;
+        }
+        writePending();
+        mapSegment(segmentStart);
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public long getCommittedLength() {
+        return committedLength;
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /** Truncates the file to the committed length and removes the commit file. */
+    @Override
+    public void close() throws IOException {
+        commit();
+        segment = null;
+        dataChannel.truncate(committedLength);
+        dataAccess.close();
+        commitAccess.close();
+
+        if (!commitFile.delete()) {
+            throw new IOException("Could not delete " + commitFile);
+        }
+    }
+
+    /**
+     * Restores all recording files below the given folder (including session sub folders) that
+     * were not closed properly, i.e. truncates them to their last committed record.
+     *
+     * @return number of recovered files
+     */
+    public static int recover(File dir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+
+        int recovered = 0;
+        for (File f : files) {
+            if (f.isDirectory()) {
+                recovered += recover(f);
+            } else if (f.getName().endsWith(COMMIT_SUFFIX)) {
+                String path = f.getPath();
+                if (recoverFile(new File(path.substring(0, path.length() - COMMIT_SUFFIX.length())))) {
+                    recovered ++;
+                }
+            }
+        }
+        return recovered;
+    }
+
+    /**
+     * Truncates a single recording file to the length stored in its commit file.
+     *
+     * @return false if the file has no commit file, i.e. it was closed properly
+     */
+    public static boolean recoverFile(File file) throws IOException {
+        File commitFile = commitFileOf(file);
+        if (!commitFile.exists()) {
+            return false;
+        }
+
+        long committedLength = 0;
+        try (RandomAccessFile commitAccess = new RandomAccessFile(commitFile, "r")) {
+            if (commitAccess.length() >= COMMIT_FILE_SIZE) {
+                ByteBuffer header = ByteBuffer.allocate(COMMIT_FILE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                commitAccess.getChannel().read(header, 0);
+                if (header.getInt(0) == COMMIT_MAGIC) {
+                    committedLength = header.getLong(COMMIT_LENGTH_OFFSET);
+                }
+            }
+        }
+
+        if (file.exists()) {
+            try (RandomAccessFile dataAccess = new RandomAccessFile(file, "rw")) {
+                if (dataAccess.length() > committedLength) {
+                    dataAccess.setLength(committedLength);
+                }
+            }
+        }
+
+        if (!commitFile.delete()) {
+            throw new IOException("Could not delete " + commitFile);
+        }
+        return true;
+    }
+}
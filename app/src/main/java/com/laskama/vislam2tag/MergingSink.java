@@ -0,0 +1,100 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Sink that writes the text lines of a stream to its own file and additionally offers them to
+ * the {@link StreamMerger} of the session.
+ */
+class MergingSink implements RecordSink {
+
+    private final RecordSink sink;
+    private final StreamMerger merger;
+    private final SessionStream stream;
+    private final int streamId;
+
+    // part of a line that was not terminated yet
+    private final StringBuilder line = new StringBuilder(256);
+
+    MergingSink(RecordSink sink, StreamMerger merger, SessionStream stream, int streamId) {
+        this.sink = sink;
+        this.merger = merger;
+        this.stream = stream;
+        this.streamId = streamId;
+    }
+
+    @Override
+    public void write(CharSequence text) throws IOException {
+        sink.write(text);
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c != '\n') {
+                line.append(c);
+                continue;
+            }
+            String record = line.toString();
+            line.setLength(0);
+            try {
+                merger.offer(streamId, stream.timestampOf(record), record);
+            } catch (NumberFormatException e) {
+                // not a record (e.g. a header), only kept in the file of the stream
+            }
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer bytes) throws IOException {
+        sink.write(bytes);
+    }
+
+    @Override
+    public void commit() throws IOException {
+        sink.commit();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return sink.getBytesWritten();
+    }
+
+    /** Lines that were already offered to the merger are kept in the merged output. */
+    @Override
+    public void rollback(long length) throws IOException {
+        sink.rollback(length);
+        line.setLength(0);
+    }
+
+    @Override
+    public void trim() throws IOException {
+        sink.trim();
+    }
+
+    @Override
+    public void preallocate() throws IOException {
+        sink.preallocate();
+    }
+
+    @Override
+    public void close() throws IOException {
+        sink.close();
+        merger.closeStream(streamId);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+/**
+ * Appends decimal numbers to a StringBuilder without allocating (unlike String.format).
+ */
+final class NumberAppender {
+
+    private static final long[] POWERS_OF_TEN = {1, 10, 100, 1000, 10000, 100000, 1000000};
+
+    private NumberAppender() {
+    }
+
+    /**
+     * Appends the value rounded to the given number of decimals (at most 6), like "%.6f" with the
+     * given decimal separator.
+     */
+    static void appendFixed(StringBuilder text, double value, int decimals, char decimalSeparator) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            text.append(value);
+            return;
+        }
+        long scale = POWERS_OF_TEN[decimals];
+        long scaled = Math.round(Math.abs(value) * scale);
+        // like String.format, negative values keep their sign even if they round to zero (-0.000000)
+        if (Double.doubleToRawLongBits(value) < 0) {
+            text.append('-');
+        }
+        text.append(scaled / scale);
+        if (decimals > 0) {
+            text.append(decimalSeparator);
+            long fraction = scaled % scale;
+            // leading zeros of the fraction
+            for (long p = scale / 10; p > fraction && p > 1; p /= 10) {
+                text.append('0');
+            }
+            text.append(fraction);
+        }
+    }
+}
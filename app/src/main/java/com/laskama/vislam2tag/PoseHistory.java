@@ -0,0 +1,181 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+/**
+ * Ring buffer of the most recent camera poses (timestamp, translation, rotation quaternion) in
+ * primitive arrays, which allows to look up the interpolated pose at any time within the buffered
+ * time span (e.g. the time a WLAN scan measured an access point).
+ *
+ * Poses are appended by the frame thread and looked up by the writer threads, hence all methods
+ * are synchronized.
+ */
+public class PoseHistory {
+
+    // tx, ty, tz, qx, qy, qz, qw
+    public static final int POSE_VALUES = 7;
+
+    private final int capacity;
+    private final long maxGapNanos;
+
+    private final long[] timestamps;
+    private final float[] poses;
+
+    // index of the oldest pose and number of poses in the ring
+    private int start = 0;
+    private int size = 0;
+
+    /**
+     * @param capacity number of poses that are kept (e.g. 30 s at 30 fps).
+     * @param maxGapNanos maximum time between two poses that are interpolated; lookups within
+     *                    larger gaps (e.g. while tracking was lost) and lookups further than this
+     *                    before the first or after the last pose fail.
+     */
+    public PoseHistory(int capacity, long maxGapNanos) {
+        this.capacity = capacity;
+        this.maxGapNanos = maxGapNanos;
+        this.timestamps = new long[capacity];
+        this.poses = new float[capacity * POSE_VALUES];
+    }
+
+    /** Appends a pose, timestamps must be increasing (older poses are ignored). */
+    public synchronized void add(long timestamp, float tx, float ty, float tz, float qx, float qy, float qz, float qw) {
+        if (size > 0 && timestamp <= timestamps[slot(size - 1)]) {
+            return;
+        }
+        int slot;
+        if (size < capacity) {
+            slot = slot(size);
+            size ++;
+        } else {
+            // overwrite the oldest pose
+            slot = start;
+            start = (start + 1) % capacity;
+        }
+        timestamps[slot] = timestamp;
+        int p = slot * POSE_VALUES;
+        poses[p] = tx;
+        poses[p + 1] = ty;
+        poses[p + 2] = tz;
+        poses[p + 3] = qx;
+        poses[p + 4] = qy;
+        poses[p + 5] = qz;
+        poses[p + 6] = qw;
+    }
+
+    public synchronized void clear() {
+        start = 0;
+        size = 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private int slot(int i) {
+        return (start + i) % capacity;
+    }
+
+    /**
+     * Writes the pose at the given time into out (tx, ty, tz, qx, qy, qz, qw): translation is
+     * interpolated linearly, rotation via SLERP between the two neighbouring poses.
+     *
+     * @return false if no pose is known for the given time (out is unchanged).
+     */
+    public synchronized boolean interpolate(long timestamp, float[] out) {
+        if (size == 0) {
+            return false;
+        }
+        long first = timestamps[start];
+        long last = timestamps[slot(size - 1)];
+        if (timestamp <= first || timestamp >= last) {
+            // hold the outermost pose if close enough
+            boolean before = timestamp <= first;
+            if ((before ? first - timestamp : timestamp - last) > maxGapNanos) {
+                return false;
+            }
+            System.arraycopy(poses, (before ? start : slot(size - 1)) * POSE_VALUES, out, 0, POSE_VALUES);
+            return true;
+        }
+
+        // binary search for the last pose at or before the timestamp (first < timestamp < last)
+        int low = 0;
+        int high = size - 1;
+        while (high - low > 1) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[slot(mid)] <= timestamp) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        int a = slot(low);
+        int b = slot(high);
+        long gap = timestamps[b] - timestamps[a];
+        if (gap > maxGapNanos) {
+            return false;
+        }
+        float t = (float) ((double) (timestamp - timestamps[a]) / gap);
+
+        int pa = a * POSE_VALUES;
+        int pb = b * POSE_VALUES;
+        for (int i = 0; i < 3; i++) {
+            out[i] = poses[pa + i] + t * (poses[pb + i] - poses[pa + i]);
+        }
+        slerp(poses, pa + 3, pb + 3, t, out);
+        return true;
+    }
+
+    // interpolates the quaternions at qa and qb (x, y, z, w) and writes the result to out[3..6]
+    private static void slerp(float[] q, int qa, int qb, float t, float[] out) {
+        double dot = 0;
+        for (int i = 0; i < 4; i++) {
+            dot += q[qa + i] * q[qb + i];
+        }
+        // q and -q are the same rotation, take the shorter path
+        double sign = 1;
+        if (dot < 0) {
+            dot = -dot;
+            sign = -1;
+        }
+
+        double wa;
+        double wb;
+        if (dot > 0.9995) {
+            // nearly identical rotations, linear interpolation (normalized below)
+            wa = 1 - t;
+            wb = t;
+        } else {
+            double theta = Math.acos(dot);
+            double sinTheta = Math.sin(theta);
+            wa = Math.sin((1 - t) * theta) / sinTheta;
+            wb = Math.sin(t * theta) / sinTheta;
+        }
+        wb *= sign;
+
+        double norm = 0;
+        for (int i = 0; i < 4; i++) {
+            double v = wa * q[qa + i] + wb * q[qb + i];
+            out[3 + i] = (float) v;
+            norm += v * v;
+        }
+        norm = Math.sqrt(norm);
+        for (int i = 0; i < 4; i++) {
+            out[3 + i] = (float) (out[3 + i] / norm);
+        }
+    }
+}
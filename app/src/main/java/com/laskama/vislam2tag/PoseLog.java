@@ -0,0 +1,170 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import com.google.ar.core.Pose;
+import com.google.ar.core.TrackingFailureReason;
+import com.google.ar.core.TrackingState;
+
+import java.io.IOException;
+import java.text.DecimalFormatSymbols;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Log of the camera poses (poses.csv).
+ *
+ * Poses are appended into preallocated primitive record arrays (batches). A batch is handed to
+ * the writer lane once the flush policy is met, the lane thread formats the records (without
+ * String.format) and returns the batch to a pool for reuse. Hence appending a pose neither
+ * formats nor allocates.
+ *
+ * Line layout: timestamp; tx; ty; tz; qx; qy; qz; qw; tracking state; tracking failure reason;
+ *              frame timestamp (Frame.getTimestamp, camera clock)
+ *
+ * Poses must be appended by a single thread.
+ */
+public class PoseLog {
+
+    /**
+     * Flushes a batch once it holds maxRecords records or is maxAgeNanos old. A record has a
+     * bounded text size, hence maxRecords also bounds the bytes per batch.
+     */
+    public static class FlushPolicy {
+        public final int maxRecords;
+        public final long maxAgeNanos;
+
+        public FlushPolicy(int maxRecords, long maxAgeNanos) {
+            this.maxRecords = maxRecords;
+            this.maxAgeNanos = maxAgeNanos;
+        }
+    }
+
+    private static final int POSE_SIZE = 7;
+    private static final int POSE_DECIMALS = 6;
+
+    // upper bound of the text size of a record, used for sizing the text buffer of a batch
+    private static final int ESTIMATED_RECORD_SIZE = 150;
+
+    // number of batches kept for reuse
+    private static final int POOL_SIZE = 8;
+
+    private static final TrackingState[] TRACKING_STATES = TrackingState.values();
+    private static final TrackingFailureReason[] FAILURE_REASONS = TrackingFailureReason.values();
+
+    private final WriterLane lane;
+    private final FlushPolicy policy;
+    private final char decimalSeparator;
+
+    private final BlockingQueue<PoseBatch> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+    private PoseBatch current;
+
+    private long recordCount = 0;
+
+    public PoseLog(WriterLane lane, FlushPolicy policy) {
+        this.lane = lane;
+        this.policy = policy;
+        // same decimal separator as String.format
+        this.decimalSeparator = DecimalFormatSymbols.getInstance().getDecimalSeparator();
+        this.current = new PoseBatch();
+    }
+
+    public void append(long timestamp, long frameTimestamp, Pose pose, TrackingState trackingState,
+                       TrackingFailureReason failureReason) {
+        PoseBatch batch = current;
+        int i = batch.count;
+        if (i == 0) {
+            batch.firstTimestamp = timestamp;
+        }
+
+        batch.timestamps[i] = timestamp;
+        batch.frameTimestamps[i] = frameTimestamp;
+        int offset = i * POSE_SIZE;
+        batch.poses[offset] = pose.tx();
+        batch.poses[offset + 1] = pose.ty();
+        batch.poses[offset + 2] = pose.tz();
+        batch.poses[offset + 3] = pose.qx();
+        batch.poses[offset + 4] = pose.qy();
+        batch.poses[offset + 5] = pose.qz();
+        batch.poses[offset + 6] = pose.qw();
+        batch.trackingStates[i] = (byte) trackingState.ordinal();
+        batch.failureReasons[i] = (byte) failureReason.ordinal();
+        batch.count = i + 1;
+        recordCount ++;
+
+        if (batch.count >= policy.maxRecords || timestamp - batch.firstTimestamp >= policy.maxAgeNanos) {
+            flush();
+        }
+    }
+
+    /** Hands the current batch to the writer lane. */
+    public void flush() {
+        if (current.count == 0) {
+            return;
+        }
+        PoseBatch batch = current;
+        PoseBatch next = pool.poll();
+        // the pool is empty if the lane is lagging behind, poses are never dropped for reuse
+        current = next != null ? next : new PoseBatch();
+
+        if (!lane.submit(batch)) {
+            batch.count = 0;
+            pool.offer(batch);
+        }
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    private class PoseBatch implements RecordBatch {
+        final long[] timestamps = new long[policy.maxRecords];
+        final long[] frameTimestamps = new long[policy.maxRecords];
+        final float[] poses = new float[policy.maxRecords * POSE_SIZE];
+        final byte[] trackingStates = new byte[policy.maxRecords];
+        final byte[] failureReasons = new byte[policy.maxRecords];
+        int count = 0;
+        long firstTimestamp;
+
+        // only used by the lane thread
+        private final StringBuilder text = new StringBuilder(policy.maxRecords * ESTIMATED_RECORD_SIZE);
+
+        @Override
+        public void writeTo(RecordSink sink) throws IOException {
+            // executed by the writer lane of poses.csv
+            try {
+                text.setLength(0);
+                for (int i = 0; i < count; i++) {
+                    text.append(timestamps[i]);
+                    for (int j = i * POSE_SIZE; j < (i + 1) * POSE_SIZE; j++) {
+                        text.append("; ");
+                        NumberAppender.appendFixed(text, poses[j], POSE_DECIMALS, decimalSeparator);
+                    }
+                    text.append("; ").append(TRACKING_STATES[trackingStates[i]].name());
+                    text.append("; ").append(FAILURE_REASONS[failureReasons[i]].name());
+                    text.append("; ").append(frameTimestamps[i]);
+                    text.append('\n');
+                }
+                sink.write(text);
+            } finally {
+                // a failed batch is rolled back by the lane, the batch is reused either way
+                count = 0;
+                pool.offer(this);
+            }
+        }
+    }
+}
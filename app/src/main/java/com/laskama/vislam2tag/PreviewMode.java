@@ -0,0 +1,60 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+/**
+ * Camera preview of the recording screen. The edge detection overlay is not required for
+ * labeling, hence it can be reduced or turned off to save time on the GL thread.
+ */
+public enum PreviewMode {
+
+    /** Camera image only, the CPU image is not acquired at all. */
+    OFF(R.string.preview_off),
+
+    /** Edge detection overlay that is only updated a few times per second. */
+    LOW_RATE(R.string.preview_low_rate),
+
+    /** Edge detection overlay that is updated on every camera frame. */
+    FULL(R.string.preview_full);
+
+    private final int label;
+
+    PreviewMode(int label) {
+        this.label = label;
+    }
+
+    /** String resource of the name that is shown in the UI. */
+    public int getLabel() {
+        return label;
+    }
+
+    /** The mode that follows this one when cycling through the modes. */
+    public PreviewMode next() {
+        PreviewMode[] modes = values();
+        return modes[(ordinal() + 1) % modes.length];
+    }
+
+    /** Mode with the given name (as stored in the preferences), defaultMode if there is none. */
+    public static PreviewMode fromName(String name, PreviewMode defaultMode) {
+        for (PreviewMode mode : values()) {
+            if (mode.name().equals(name)) {
+                return mode;
+            }
+        }
+        return defaultMode;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Output stream of a single recording file (e.g. poses.csv). A sink is only accessed by a single
+ * thread, i.e. the {@link WriterLane} or {@link SensorDrainThread} it belongs to.
+ */
+public interface RecordSink extends Closeable {
+
+    /** Writes the text UTF-8 encoded. */
+    void write(CharSequence text) throws IOException;
+
+    /** Writes the remaining bytes of the buffer. */
+    void write(ByteBuffer bytes) throws IOException;
+
+    /** Makes everything written so far visible on disk (called after complete records only). */
+    void commit() throws IOException;
+
+    /** Number of bytes written to this sink so far. */
+    long getBytesWritten();
+
+    /**
+     * Discards everything written after the given number of bytes, e.g. the part of a batch that
+     * failed to write. The length must not be below the length of the last commit.
+     */
+    void rollback(long length) throws IOException;
+
+    /**
+     * Discards everything written after the last commit and releases the space that is reserved
+     * for the following records, such that the file ends with the last complete record (e.g. if
+     * the app is killed afterwards). Writing continues without reserved space until
+     * {@link #preallocate()} is called.
+     */
+    void trim() throws IOException;
+
+    /** Reserves space for the following records again (after {@link #trim()}). */
+    void preallocate() throws IOException;
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+/**
+ * Drops access points of cached WLAN scan results: an access point is stale if its
+ * ScanResult.timestamp equals the last one written for its BSSID, i.e. it was not measured again
+ * since the previous scan.
+ *
+ * Usage per scan: {@link #beginScan()}, {@link #accept} per access point, then the fresh and
+ * stale counts of the scan.
+ */
+public class ScanDeduplicator {
+
+    // last written ScanResult.timestamp per packed BSSID
+    private final LongLongHashMap lastTimestamps = new LongLongHashMap(512);
+
+    private int freshCount;
+    private int staleCount;
+    private long staleTotal = 0;
+
+    public void beginScan() {
+        freshCount = 0;
+        staleCount = 0;
+    }
+
+    /**
+     * @return true if the access point was measured since it was accepted the last time.
+     */
+    public boolean accept(String bssid, long timestamp) {
+        long mac = WifiRecordFormat.packBssid(bssid);
+        // BSSIDs that are not MAC addresses can not be tracked, they are always written
+        if (mac >= 0) {
+            if (lastTimestamps.get(mac, Long.MIN_VALUE) == timestamp) {
+                staleCount ++;
+                staleTotal ++;
+                return false;
+            }
+            lastTimestamps.put(mac, timestamp);
+        }
+        freshCount ++;
+        return true;
+    }
+
+    /** Number of accepted access points of the current scan. */
+    public int getFreshCount() {
+        return freshCount;
+    }
+
+    /** Number of dropped access points of the current scan. */
+    public int getStaleCount() {
+        return staleCount;
+    }
+
+    /** Number of dropped access points of all scans. */
+    public long getStaleTotal() {
+        return staleTotal;
+    }
+
+    public void clear() {
+        lastTimestamps.clear();
+    }
+}
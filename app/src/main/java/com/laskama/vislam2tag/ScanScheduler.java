@@ -0,0 +1,255 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+/**
+ * Schedules WLAN scan requests and classifies the delivered results.
+ *
+ * Android throttles scan requests (e.g. 4 per 2 minutes in the foreground). A throttled request
+ * either fails right away or delivers the previous (cached) results again, which would otherwise
+ * be logged like new measurements. The scheduler
+ *  - tags each delivered scan as FRESH (at least one access point was measured after the newest
+ *    one of the previous scan) or CACHED,
+ *  - requests the next scan right after a fresh one (at most every minIntervalNanos),
+ *  - backs off exponentially after throttled or failed requests, cached results and timeouts,
+ *  - records the latency of fresh scans (request until delivery) and the fresh scan rate.
+ *
+ * The state machine is free of android dependencies, time and the scheduling of requests are
+ * provided via {@link Clock} and {@link Timer} (Handler.postDelayed on android). All methods must
+ * be called on the thread of the timer, except for the getters of the statistics (e.g. for
+ * display), whose values are then only approximately consistent.
+ */
+public class ScanScheduler {
+
+    /** Time source in nanoseconds (the common time base on android, see {@link Timebase}). */
+    public interface Clock {
+        long now();
+    }
+
+    /** Requests a scan, returns false if the request was rejected (e.g. throttled). */
+    public interface Scanner {
+        boolean startScan();
+    }
+
+    public interface Timer {
+        void schedule(Runnable task, long delayMillis);
+
+        void cancel(Runnable task);
+    }
+
+    public enum State {
+        STOPPED,
+        // a scan was requested, waiting for its results
+        SCANNING,
+        // waiting for the next request
+        WAITING
+    }
+
+    public enum ScanKind {
+        FRESH,
+        CACHED
+    }
+
+    // number of fresh scans the rate is computed from
+    private static final int RATE_WINDOW = 8;
+
+    private final Clock clock;
+    private final Scanner scanner;
+    private final Timer timer;
+
+    private final long minIntervalNanos;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final long timeoutNanos;
+
+    private final Runnable requestTask = this::requestScan;
+    private final Runnable timeoutTask = this::onTimeout;
+
+    private State state = State.STOPPED;
+    private long requestTime;
+    private volatile long backoffNanos = 0;
+    // newest access point timestamp of all delivered scans
+    private long newestTimestamp = Long.MIN_VALUE;
+    private long lastLatencyNanos = -1;
+
+    private final LatencyStats latency = new LatencyStats();
+    private final long[] freshTimes = new long[RATE_WINDOW];
+    private volatile long freshCount = 0;
+    private volatile long cachedCount = 0;
+    private volatile long failedCount = 0;
+    private volatile long rejectedCount = 0;
+    private volatile long timeoutCount = 0;
+
+    /**
+     * @param minIntervalNanos minimum time between two requests.
+     * @param initialBackoffNanos delay after the first unsuccessful request, doubled for every
+     *                            further one up to maxBackoffNanos.
+     * @param timeoutNanos time after which a request without results counts as failed.
+     */
+    public ScanScheduler(Clock clock, Scanner scanner, Timer timer, long minIntervalNanos,
+                         long initialBackoffNanos, long maxBackoffNanos, long timeoutNanos) {
+        this.clock = clock;
+        this.scanner = scanner;
+        this.timer = timer;
+        this.minIntervalNanos = minIntervalNanos;
+        this.initialBackoffNanos = initialBackoffNanos;
+        this.maxBackoffNanos = maxBackoffNanos;
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    /** Requests the first scan. */
+    public void start() {
+        if (state == State.STOPPED) {
+            state = State.WAITING;
+            requestScan();
+        }
+    }
+
+    public void stop() {
+        state = State.STOPPED;
+        timer.cancel(requestTask);
+        timer.cancel(timeoutTask);
+    }
+
+    private void requestScan() {
+        if (state != State.WAITING) {
+            return;
+        }
+        requestTime = clock.now();
+        if (scanner.startScan()) {
+            state = State.SCANNING;
+            timer.schedule(timeoutTask, timeoutNanos / 1_000_000);
+        } else {
+            rejectedCount ++;
+            increaseBackoff();
+            scheduleNext();
+        }
+    }
+
+    /**
+     * Classifies delivered scan results (also results requested by other apps).
+     *
+     * @param newestTimestamp newest ScanResult.timestamp of the results (any time unit).
+     */
+    public ScanKind onScanResults(long newestTimestamp) {
+        long now = clock.now();
+        ScanKind kind = newestTimestamp > this.newestTimestamp ? ScanKind.FRESH : ScanKind.CACHED;
+        if (kind == ScanKind.FRESH) {
+            this.newestTimestamp = newestTimestamp;
+            freshTimes[(int) (freshCount % RATE_WINDOW)] = now;
+            freshCount ++;
+        } else {
+            cachedCount ++;
+        }
+
+        if (state != State.SCANNING) {
+            // not requested by this scheduler, the next request stays as scheduled
+            lastLatencyNanos = -1;
+            return kind;
+        }
+        timer.cancel(timeoutTask);
+        if (kind == ScanKind.FRESH) {
+            lastLatencyNanos = now - requestTime;
+            latency.record(lastLatencyNanos);
+            backoffNanos = 0;
+        } else {
+            lastLatencyNanos = -1;
+            increaseBackoff();
+        }
+        scheduleNext();
+        return kind;
+    }
+
+    /** The requested scan failed (results were not updated). */
+    public void onScanFailed() {
+        failedCount ++;
+        if (state == State.SCANNING) {
+            timer.cancel(timeoutTask);
+            increaseBackoff();
+            scheduleNext();
+        }
+    }
+
+    private void onTimeout() {
+        if (state == State.SCANNING) {
+            timeoutCount ++;
+            increaseBackoff();
+            scheduleNext();
+        }
+    }
+
+    private void increaseBackoff() {
+        backoffNanos = backoffNanos == 0 ? initialBackoffNanos : Math.min(backoffNanos * 2, maxBackoffNanos);
+    }
+
+    private void scheduleNext() {
+        state = State.WAITING;
+        long delay = Math.max(minIntervalNanos - (clock.now() - requestTime), backoffNanos);
+        timer.schedule(requestTask, Math.max(0, delay) / 1_000_000);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /** Current delay after unsuccessful requests, 0 if the last request was successful. */
+    public long getBackoffNanos() {
+        return backoffNanos;
+    }
+
+    /** Latency of the last classified scan, -1 if it was cached or not requested. */
+    public long getLastLatencyNanos() {
+        return lastLatencyNanos;
+    }
+
+    /** Latency of fresh scans from the request until the delivery. */
+    public LatencyStats getLatency() {
+        return latency;
+    }
+
+    /** Fresh scans per minute over the last fresh scans. */
+    public double getFreshRatePerMinute() {
+        int n = (int) Math.min(freshCount, RATE_WINDOW);
+        if (n < 2) {
+            return 0;
+        }
+        long newest = freshTimes[(int) ((freshCount - 1) % RATE_WINDOW)];
+        long oldest = freshTimes[(int) ((freshCount - n) % RATE_WINDOW)];
+        return newest > oldest ? (n - 1) * 60e9 / (newest - oldest) : 0;
+    }
+
+    public long getFreshCount() {
+        return freshCount;
+    }
+
+    public long getCachedCount() {
+        return cachedCount;
+    }
+
+    public long getFailedCount() {
+        return failedCount;
+    }
+
+    /** Requests that were rejected right away (startScan returned false). */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    public long getTimeoutCount() {
+        return timeoutCount;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+/**
+ * Callback latency of the IMU events of a single sensor, measured from the delivery of their batch.
+ *
+ * With hardware batching (maxReportLatencyUs > 0) the events wait in the sensor FIFO until the
+ * batch is delivered, so the latency of an event relative to its own timestamp is dominated by
+ * the configured report latency. The events of a batch are delivered back to back, hence a
+ * callback that follows the previous one within the batch gap belongs to the same batch. A batch
+ * is delivered no earlier than the timestamp of its newest event, so the latency of a batch is
+ * measured from that timestamp to the callback of its last event. Without batching, every event
+ * is delivered on its own and the latency is measured per event.
+ *
+ * Events must be added on a single thread (the sensor thread), the counts may be read by other
+ * threads (e.g. for display).
+ */
+public class SensorBatchLatency {
+
+    private final long batchGapNanos;
+    private final LatencyStats stats = new LatencyStats();
+
+    private volatile long eventCount = 0;
+
+    // the batch whose latency is not recorded yet
+    private boolean pending = false;
+    private long lastCallbackNanos;
+    private long newestTimestamp;
+
+    /** @param batchGapNanos maximal time between two callbacks of the same batch. */
+    public SensorBatchLatency(long batchGapNanos) {
+        this.batchGapNanos = batchGapNanos;
+    }
+
+    /**
+     * Adds an event.
+     *
+     * @param timestamp timestamp of the event.
+     * @param now time of the callback (same time base as the event timestamp).
+     */
+    public void add(long timestamp, long now) {
+        if (pending && now - lastCallbackNanos > batchGapNanos) {
+            finish();
+        }
+        if (!pending || timestamp > newestTimestamp) {
+            newestTimestamp = timestamp;
+        }
+        pending = true;
+        lastCallbackNanos = now;
+        eventCount ++;
+    }
+
+    /** Records the latency of the last batch, called once no further events are delivered. */
+    public void finish() {
+        if (pending) {
+            stats.record(lastCallbackNanos - newestTimestamp);
+            pending = false;
+        }
+    }
+
+    public long getEventCount() {
+        return eventCount;
+    }
+
+    /** Latency per batch, recorded once the next batch starts (or on finish). */
+    public LatencyStats getStats() {
+        return stats;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Converts a binary IMU recording (sensors.bin) into the sensors.csv layout expected by the
+ * post-processing module (VI-SLAM2tag_post):
+ *
+ *   timestamp; TYPE; v0; v1; v2; v3; v4; v5
+ *
+ * Values are written like "%f" of the former String.format lines, always with '.' as decimal
+ * separator (independent of the locale of the machine).
+ *
+ * Recordings of a session that was not closed (app killed) are recovered first, see
+ * {@link MappedRecordFile#recoverFile(File)}.
+ *
+ * Can be run on a desktop machine:
+ *   java com.laskama.vislam2tag.SensorCsvConverter <session>/sensors.bin [<session>/sensors.csv]
+ */
+public class SensorCsvConverter {
+
+    private static final int VALUE_DECIMALS = 6;
+    private static final char DECIMAL_SEPARATOR = '.';
+
+    public static long convert(File binFile, File csvFile) throws IOException {
+        MappedRecordFile.recoverFile(binFile);
+        long count = 0;
+        try (SensorRecordReader reader = new SensorRecordReader(new FileInputStream(binFile).getChannel());
+             Writer writer = new BufferedWriter(new FileWriter(csvFile))) {
+            StringBuilder line = new StringBuilder(128);
+            while (reader.next()) {
+                line.setLength(0);
+                appendCsvLine(reader, line);
+                writer.append(line);
+                count ++;
+            }
+        }
+        return count;
+    }
+
+    /** Appends the sensors.csv line (including line break) of the current record. */
+    static void appendCsvLine(SensorRecordReader reader, StringBuilder line) {
+        line.append(reader.getTimestamp()).append("; ").append(reader.getLabel());
+        for (int i = 0; i < SensorRecordFormat.CSV_VALUE_COLUMNS; i++) {
+            line.append("; ");
+            appendValue(line, i < reader.getValueCount() ? reader.getValue(i) : 0);
+        }
+        line.append('\n');
+    }
+
+    /**
+     * Appends the sensors.csv line (including line break) of an event whose values are stored at
+     * values[offset, offset + valueCount).
+     */
+    static void appendCsvLine(StringBuilder line, long timestamp, String label, float[] values, int offset,
+                              int valueCount) {
+        line.append(timestamp).append("; ").append(label);
+        for (int i = 0; i < SensorRecordFormat.CSV_VALUE_COLUMNS; i++) {
+            line.append("; ");
+            appendValue(line, i < valueCount ? values[offset + i] : 0);
+        }
+        line.append('\n');
+    }
+
+    private static void appendValue(StringBuilder line, float value) {
+        NumberAppender.appendFixed(line, value, VALUE_DECIMALS, DECIMAL_SEPARATOR);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: SensorCsvConverter <sensors.bin> [<sensors.csv>]");
+            System.exit(1);
+        }
+        File binFile = new File(args[0]);
+        File csvFile = args.length > 1 ? new File(args[1]) : new File(binFile.getParentFile(), "sensors.csv");
+
+        long count = convert(binFile, csvFile);
+        System.out.println("Converted " + count + " records to " + csvFile.getPath());
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Dedicated consumer of the {@link SensorEventRing} that serializes the buffered sensor events
+ * via a {@link SensorRecordWriter}. This is the only thread that accesses the writer.
+ * Optionally, the events are offered as sensors.csv lines to a {@link StreamMerger} as well.
+ */
+public class SensorDrainThread extends Thread implements SensorEventRing.Consumer {
+
+    // time to sleep if the ring buffer is empty
+    private static final long IDLE_PARK_NANOS = 10_000_000;
+    // buffered events are committed to the file at least this often, which bounds the events that
+    // are lost if the app is killed
+    private static final long MAX_FLUSH_INTERVAL_NANOS = 100_000_000;
+
+    private final SensorEventRing ring;
+    private final SensorRecordWriter writer;
+
+    private volatile boolean running = true;
+    private volatile boolean flushRequested = false;
+    // requested state of the file (see RecordSink#trim), applied by this thread
+    private volatile boolean trimRequested = false;
+    private boolean trimmed = false;
+    private long lastFlushNanos;
+
+    private volatile long writtenCount = 0;
+    // error that stopped the thread, reported by the caller
+    private volatile IOException error;
+
+    private StreamMerger merger;
+    private int mergerStream;
+    private final StringBuilder line = new StringBuilder(128);
+
+    public SensorDrainThread(SensorEventRing ring, SensorRecordWriter writer) {
+        super("SensorDrainThread");
+        this.ring = ring;
+        this.writer = writer;
+    }
+
+    /** Offers all events to the given stream of the merger, must be called before start(). */
+    public void setMerger(StreamMerger merger, int streamId) {
+        this.merger = merger;
+        this.mergerStream = streamId;
+    }
+
+    @Override
+    public void run() {
+        ring.setConsumerThread(this);
+        lastFlushNanos = System.nanoTime();
+        try {
+            while (running) {
+                int drained = ring.drain(this);
+                long now = System.nanoTime();
+                if (flushRequested || now - lastFlushNanos >= MAX_FLUSH_INTERVAL_NANOS) {
+                    flushRequested = false;
+                    writer.flush();
+                    lastFlushNanos = now;
+                }
+                if (drained == 0) {
+                    if (trimRequested != trimmed) {
+                        trimmed = trimRequested;
+                        if (trimmed) {
+                            writer.trim();
+                        } else {
+                            writer.preallocate();
+                        }
+                    }
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+            }
+
+            // write remaining events before closing the file
+            while (ring.drain(this) > 0) {
+                // keep draining
+            }
+            writer.close();
+            if (merger != null) {
+                merger.closeStream(mergerStream);
+            }
+        } catch (IOException e) {
+            error = e;
+        }
+    }
+
+    @Override
+    public void accept(long timestamp, int sensorType, float[] values, int offset) throws IOException {
+        writer.append(timestamp, sensorType, values, offset, SensorEventRing.VALUES_PER_EVENT);
+        writtenCount ++;
+
+        if (merger != null) {
+            offerToMerger(timestamp, sensorType, values, offset);
+        }
+    }
+
+    // line as written by SensorCsvConverter: timestamp; TYPE; v0; v1; v2; v3; v4; v5
+    private void offerToMerger(long timestamp, int sensorType, float[] values, int offset) throws IOException {
+        int index = SensorRecordFormat.indexOf(sensorType);
+
+        line.setLength(0);
+        SensorCsvConverter.appendCsvLine(line, timestamp, SensorRecordFormat.label(index), values, offset,
+                SensorRecordFormat.valueCount(index));
+        line.setLength(line.length() - 1);
+        merger.offer(mergerStream, timestamp, line.toString());
+    }
+
+    /** Writes all events that are currently buffered to disk (asynchronously). */
+    public void requestFlush() {
+        flushRequested = true;
+        LockSupport.unpark(this);
+    }
+
+    /**
+     * Writes all events that are currently buffered and trims the file (asynchronously), until
+     * {@link #requestPreallocate()} is called. Events keep being recorded meanwhile.
+     */
+    public void requestTrim() {
+        trimRequested = true;
+        LockSupport.unpark(this);
+    }
+
+    /** Reserves space in the file again (asynchronously), see {@link #requestTrim()}. */
+    public void requestPreallocate() {
+        trimRequested = false;
+        LockSupport.unpark(this);
+    }
+
+    /** Drains the remaining events, closes the writer and waits for the thread to finish. */
+    public void shutdown() throws InterruptedException {
+        running = false;
+        LockSupport.unpark(this);
+        join();
+    }
+
+    public long getWrittenCount() {
+        return writtenCount;
+    }
+
+    /** Error that stopped the recording of the events, null if there was none. */
+    public IOException getError() {
+        return error;
+    }
+}
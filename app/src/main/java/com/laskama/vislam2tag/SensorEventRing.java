@@ -0,0 +1,237 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single-producer/single-consumer ring buffer for sensor events.
+ *
+ * Events are stored in preallocated primitive arrays (timestamp, sensor type and up to
+ * {@link #VALUES_PER_EVENT} values), hence neither offering nor draining allocates objects.
+ * The producer is the thread that receives the sensor callbacks, the consumer is the
+ * {@link SensorDrainThread} that serializes the events.
+ */
+public class SensorEventRing {
+
+    public static final int VALUES_PER_EVENT = SensorRecordFormat.MAX_VALUE_COUNT;
+
+    // maximum number of events that are handed to the consumer per drain call
+    private static final int DRAIN_BATCH_SIZE = 256;
+
+    // time the producer waits before retrying if the buffer is full (BLOCK policy)
+    private static final long BLOCK_PARK_NANOS = 50_000;
+
+    /** What happens if the producer offers an event while the buffer is full. */
+    public enum OverflowPolicy {
+        // wait until the consumer has freed a slot
+        BLOCK,
+        // overwrite the oldest event that was not consumed yet
+        DROP_OLDEST,
+        // discard the new event and count it
+        COUNT_AND_DROP
+    }
+
+    /** Receives drained events, the values array must not be retained. */
+    public interface Consumer {
+        void accept(long timestamp, int sensorType, float[] values, int offset) throws IOException;
+    }
+
+    private final int capacity;
+    private final int mask;
+    private final OverflowPolicy policy;
+
+    // event arena
+    private final long[] timestamps;
+    private final int[] types;
+    private final float[] values;
+
+    // next slot to be written (only advanced by the producer)
+    private final AtomicLong head = new AtomicLong();
+    // next slot to be read (advanced by the consumer, and by the producer when dropping the oldest)
+    private final AtomicLong tail = new AtomicLong();
+
+    // consumer thread, woken up by the producer if the buffer runs full
+    private volatile Thread consumerThread;
+
+    // consumer side copy of a batch, which is only handed out once the batch was claimed
+    private final long[] batchTimestamps = new long[DRAIN_BATCH_SIZE];
+    private final int[] batchTypes = new int[DRAIN_BATCH_SIZE];
+    private final float[] batchValues = new float[DRAIN_BATCH_SIZE * VALUES_PER_EVENT];
+
+    // counters (each is only written by the producer)
+    private volatile long offeredCount = 0;
+    private volatile long droppedCount = 0;
+    private volatile long overwrittenCount = 0;
+    private volatile long blockedCount = 0;
+
+    /**
+     * @param capacity number of event slots, rounded up to the next power of two
+     * @param policy behaviour if the buffer is full
+     */
+    public SensorEventRing(int capacity, OverflowPolicy policy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        this.capacity = nextPowerOfTwo(capacity);
+        this.mask = this.capacity - 1;
+        this.policy = policy;
+
+        this.timestamps = new long[this.capacity];
+        this.types = new int[this.capacity];
+        this.values = new float[this.capacity * VALUES_PER_EVENT];
+    }
+
+    private static int nextPowerOfTwo(int value) {
+        int highest = Integer.highestOneBit(value);
+        return highest == value ? value : highest << 1;
+    }
+
+    /**
+     * Stores a sensor event (producer thread only). Values beyond {@link #VALUES_PER_EVENT} are
+     * ignored, missing values are stored as zero.
+     *
+     * @return false if the event was dropped
+     */
+    public boolean offer(long timestamp, int sensorType, float[] eventValues) {
+        long h = head.get();
+        offeredCount ++;
+
+        boolean blocked = false;
+        while (true) {
+            long t = tail.get();
+            if (h - t < capacity) {
+                break;
+            }
+
+            // buffer is full
+            Thread consumer = consumerThread;
+            if (consumer != null) {
+                LockSupport.unpark(consumer);
+            }
+
+            switch (policy) {
+                case COUNT_AND_DROP:
+                    droppedCount ++;
+                    return false;
+                case DROP_OLDEST:
+                    // claim the oldest slot, fails if the consumer claimed it in the meantime
+                    if (tail.compareAndSet(t, t + 1)) {
+                        overwrittenCount ++;
+                    }
+                    break;
+                case BLOCK:
+                    if (!blocked) {
+                        blocked = true;
+                        blockedCount ++;
+                    }
+                    LockSupport.parkNanos(BLOCK_PARK_NANOS);
+                    break;
+            }
+        }
+
+        int slot = (int) (h & mask);
+        timestamps[slot] = timestamp;
+        types[slot] = sensorType;
+
+        int base = slot * VALUES_PER_EVENT;
+        int count = Math.min(eventValues.length, VALUES_PER_EVENT);
+        for (int i = 0; i < count; i++) {
+            values[base + i] = eventValues[i];
+        }
+        for (int i = count; i < VALUES_PER_EVENT; i++) {
+            values[base + i] = 0.f;
+        }
+
+        // publish the slot to the consumer
+        head.lazySet(h + 1);
+        return true;
+    }
+
+    /**
+     * Hands up to one batch of buffered events to the consumer (consumer thread only).
+     *
+     * @return the number of consumed events
+     */
+    public int drain(Consumer consumer) throws IOException {
+        int n;
+        while (true) {
+            long t = tail.get();
+            n = (int) Math.min(head.get() - t, DRAIN_BATCH_SIZE);
+            if (n <= 0) {
+                return 0;
+            }
+
+            // copy the batch before claiming it, since the producer may overwrite the oldest
+            // slots in the meantime (DROP_OLDEST). In that case the claim fails and we retry.
+            for (int i = 0; i < n; i++) {
+                int slot = (int) ((t + i) & mask);
+                batchTimestamps[i] = timestamps[slot];
+                batchTypes[i] = types[slot];
+                System.arraycopy(values, slot * VALUES_PER_EVENT, batchValues, i * VALUES_PER_EVENT, VALUES_PER_EVENT);
+            }
+
+            if (tail.compareAndSet(t, t + n)) {
+                break;
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            consumer.accept(batchTimestamps[i], batchTypes[i], batchValues, i * VALUES_PER_EVENT);
+        }
+        return n;
+    }
+
+    /** Registers the thread that drains this buffer, such that it is woken up if the buffer is full. */
+    public void setConsumerThread(Thread thread) {
+        consumerThread = thread;
+    }
+
+    /** Number of events that are currently buffered. */
+    public int size() {
+        return (int) Math.max(0, head.get() - tail.get());
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    public long getOfferedCount() {
+        return offeredCount;
+    }
+
+    /** Number of new events that were discarded (COUNT_AND_DROP). */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /** Number of buffered events that were overwritten before being consumed (DROP_OLDEST). */
+    public long getOverwrittenCount() {
+        return overwrittenCount;
+    }
+
+    /** Number of events for which the producer had to wait for free space (BLOCK). */
+    public long getBlockedCount() {
+        return blockedCount;
+    }
+}
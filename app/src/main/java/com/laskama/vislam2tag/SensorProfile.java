@@ -0,0 +1,139 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Sensor acquisition profile: sampling period, hardware FIFO batching latency and whether the
+ * sensor is recorded at all, for every IMU sensor of {@link SensorRecordFormat}.
+ *
+ * The profile is read from the sensor_profile.json asset, e.g.
+ *   {"sensors": [{"type": "ACC", "samplingPeriodUs": 20000, "maxReportLatencyUs": 500000, "enabled": true}, ...]}
+ * Sensors that are missing in the file are recorded with the default settings.
+ */
+public class SensorProfile {
+
+    private static final String TAG = SensorProfile.class.getSimpleName();
+
+    public static final String ASSET_NAME = "sensor_profile.json";
+
+    // equals SensorManager.SENSOR_DELAY_GAME
+    public static final int DEFAULT_SAMPLING_PERIOD_US = 20000;
+    // no batching, each event is delivered immediately
+    public static final int DEFAULT_MAX_REPORT_LATENCY_US = 0;
+
+    public static class Entry {
+        public final int sensorType;
+        public final String label;
+        public final int samplingPeriodUs;
+        public final int maxReportLatencyUs;
+        public final boolean enabled;
+
+        Entry(int sensorType, String label, int samplingPeriodUs, int maxReportLatencyUs, boolean enabled) {
+            this.sensorType = sensorType;
+            this.label = label;
+            this.samplingPeriodUs = samplingPeriodUs;
+            this.maxReportLatencyUs = maxReportLatencyUs;
+            this.enabled = enabled;
+        }
+
+        @Override
+        public String toString() {
+            return label + (enabled ? "" : " (disabled)") + ": " + samplingPeriodUs + " us, batching " + maxReportLatencyUs + " us";
+        }
+    }
+
+    private final List<Entry> entries;
+
+    private SensorProfile(List<Entry> entries) {
+        this.entries = Collections.unmodifiableList(entries);
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /** All sensors enabled with SENSOR_DELAY_GAME and without batching. */
+    public static SensorProfile defaultProfile() {
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < SensorRecordFormat.typeCount(); i++) {
+            entries.add(new Entry(SensorRecordFormat.sensorType(i), SensorRecordFormat.label(i),
+                    DEFAULT_SAMPLING_PERIOD_US, DEFAULT_MAX_REPORT_LATENCY_US, true));
+        }
+        return new SensorProfile(entries);
+    }
+
+    public static SensorProfile fromJson(String json) throws JSONException {
+        JSONArray sensors = new JSONObject(json).getJSONArray("sensors");
+
+        Entry[] byIndex = new Entry[SensorRecordFormat.typeCount()];
+        for (int i = 0; i < sensors.length(); i++) {
+            JSONObject sensor = sensors.getJSONObject(i);
+            String label = sensor.getString("type");
+            int index = SensorRecordFormat.indexOfLabel(label);
+            if (index < 0) {
+                throw new JSONException("Unknown sensor type " + label);
+            }
+            byIndex[index] = new Entry(
+                    SensorRecordFormat.sensorType(index),
+                    label,
+                    sensor.optInt("samplingPeriodUs", DEFAULT_SAMPLING_PERIOD_US),
+                    sensor.optInt("maxReportLatencyUs", DEFAULT_MAX_REPORT_LATENCY_US),
+                    sensor.optBoolean("enabled", true));
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < byIndex.length; i++) {
+            if (byIndex[i] == null) {
+                byIndex[i] = new Entry(SensorRecordFormat.sensorType(i), SensorRecordFormat.label(i),
+                        DEFAULT_SAMPLING_PERIOD_US, DEFAULT_MAX_REPORT_LATENCY_US, true);
+            }
+            entries.add(byIndex[i]);
+        }
+        return new SensorProfile(entries);
+    }
+
+    /** Loads the profile from the app assets, falls back to the default profile on errors. */
+    public static SensorProfile load(Context context) {
+        try (InputStream inputStream = context.getAssets().open(ASSET_NAME)) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = inputStream.read(buffer)) > 0) {
+                bytes.write(buffer, 0, n);
+            }
+            return fromJson(new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Could not load " + ASSET_NAME + ", using the default profile", e);
+            return defaultProfile();
+        }
+    }
+}
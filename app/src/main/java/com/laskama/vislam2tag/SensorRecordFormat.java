@@ -0,0 +1,147 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Schema of the binary IMU recording (sensors.bin).
+ *
+ * The file starts with a header that describes every recorded sensor type:
+ *   magic "VSLS" | version (short) | type count (byte) |
+ *   per type: android sensor type (int) | value count (byte) | label length (byte) | label (ASCII)
+ *
+ * Afterwards the file is a plain sequence of records, whose width depends on the sensor type:
+ *   type index (byte) | SensorEvent.timestamp (long) | values (float x value count)
+ *
+ * All numbers are little endian. The labels and value counts match the columns of the former
+ * sensors.csv, such that {@link SensorCsvConverter} can restore that layout without loss.
+ *
+ * This class must not depend on the android framework, since the reader and converter are also
+ * used on desktop machines.
+ */
+public final class SensorRecordFormat {
+
+    public static final int MAGIC = 0x534c5356; // "VSLS" when written little endian
+    public static final short VERSION = 1;
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    // number of value columns in the csv layout (unused values are padded with zeros)
+    public static final int CSV_VALUE_COLUMNS = 6;
+
+    // android.hardware.Sensor.TYPE_* constants (duplicated to stay free of android dependencies)
+    public static final int TYPE_ACCELEROMETER = 1;
+    public static final int TYPE_MAGNETIC_FIELD = 2;
+    public static final int TYPE_GYROSCOPE = 4;
+    public static final int TYPE_ROTATION_VECTOR = 11;
+    public static final int TYPE_MAGNETIC_FIELD_UNCALIBRATED = 14;
+    public static final int TYPE_GAME_ROTATION_VECTOR = 15;
+    public static final int TYPE_GYROSCOPE_UNCALIBRATED = 16;
+
+    // recorded sensor types, the position within the arrays is the type index used in the records
+    private static final int[] SENSOR_TYPES = {
+            TYPE_ACCELEROMETER,
+            TYPE_GYROSCOPE_UNCALIBRATED,
+            TYPE_GYROSCOPE,
+            TYPE_MAGNETIC_FIELD,
+            TYPE_MAGNETIC_FIELD_UNCALIBRATED,
+            TYPE_ROTATION_VECTOR,
+            TYPE_GAME_ROTATION_VECTOR};
+    private static final String[] LABELS = {
+            "ACC", "GYRO_UN", "GYRO", "MAG", "MAG_UN", "ROT", "GAME_ROT"};
+    private static final int[] VALUE_COUNTS = {3, 6, 3, 3, 3, 4, 4};
+
+    // lookup table from android sensor type to type index (-1 if not recorded)
+    private static final int[] INDEX_BY_SENSOR_TYPE = new int[32];
+
+    static {
+        for (int i = 0; i < INDEX_BY_SENSOR_TYPE.length; i++) {
+            INDEX_BY_SENSOR_TYPE[i] = -1;
+        }
+        for (int i = 0; i < SENSOR_TYPES.length; i++) {
+            INDEX_BY_SENSOR_TYPE[SENSOR_TYPES[i]] = i;
+        }
+    }
+
+    public static final int MAX_VALUE_COUNT = 6;
+    public static final int MAX_RECORD_SIZE = recordSize(MAX_VALUE_COUNT);
+
+    private SensorRecordFormat() {
+    }
+
+    public static int typeCount() {
+        return SENSOR_TYPES.length;
+    }
+
+    /** Returns the type index for an android sensor type or -1 if the type is not recorded. */
+    public static int indexOf(int sensorType) {
+        if (sensorType < 0 || sensorType >= INDEX_BY_SENSOR_TYPE.length) {
+            return -1;
+        }
+        return INDEX_BY_SENSOR_TYPE[sensorType];
+    }
+
+    /** Returns the type index for a label (e.g. "ACC") or -1 if there is no such type. */
+    public static int indexOfLabel(String label) {
+        for (int i = 0; i < LABELS.length; i++) {
+            if (LABELS[i].equals(label)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public static int sensorType(int index) {
+        return SENSOR_TYPES[index];
+    }
+
+    public static String label(int index) {
+        return LABELS[index];
+    }
+
+    public static int valueCount(int index) {
+        return VALUE_COUNTS[index];
+    }
+
+    public static int recordSize(int valueCount) {
+        return 1 + 8 + 4 * valueCount;
+    }
+
+    public static int headerSize() {
+        int size = 4 + 2 + 1;
+        for (String label : LABELS) {
+            size += 4 + 1 + 1 + label.length();
+        }
+        return size;
+    }
+
+    /** Writes the file header (schema description) into the given buffer. */
+    static void writeHeader(ByteBuffer out) {
+        out.putInt(MAGIC);
+        out.putShort(VERSION);
+        out.put((byte) SENSOR_TYPES.length);
+        for (int i = 0; i < SENSOR_TYPES.length; i++) {
+            byte[] label = LABELS[i].getBytes(StandardCharsets.US_ASCII);
+            out.putInt(SENSOR_TYPES[i]);
+            out.put((byte) VALUE_COUNTS[i]);
+            out.put((byte) label.length);
+            out.put(label);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads a binary IMU recording (see {@link SensorRecordFormat}).
+ *
+ * The schema is taken from the file header, such that recordings of older app versions can still
+ * be read. A truncated last record (e.g. if the app was killed while writing) is ignored. The zero
+ * padding of a file that was not closed is not detected, such files must be recovered first (see
+ * {@link MappedRecordFile#recoverFile(java.io.File)}).
+ *
+ * Usage:
+ *   while (reader.next()) { reader.getTimestamp(); reader.getValue(0); ... }
+ */
+public class SensorRecordReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private boolean endOfStream = false;
+
+    // schema as described by the file header
+    private int[] sensorTypes;
+    private int[] valueCounts;
+    private String[] labels;
+
+    // current record
+    private int typeIndex;
+    private long timestamp;
+    private final float[] values = new float[SensorRecordFormat.MAX_VALUE_COUNT];
+
+    public SensorRecordReader(ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.buffer.order(SensorRecordFormat.BYTE_ORDER);
+        this.buffer.flip();
+
+        readHeader();
+    }
+
+    private void readHeader() throws IOException {
+        if (!ensure(4 + 2 + 1)) {
+            throw new IOException("Missing sensor recording header");
+        }
+        if (buffer.getInt() != SensorRecordFormat.MAGIC) {
+            throw new IOException("Not a sensor recording (invalid magic)");
+        }
+        short version = buffer.getShort();
+        if (version > SensorRecordFormat.VERSION) {
+            throw new IOException("Unsupported sensor recording version " + version);
+        }
+
+        int typeCount = buffer.get() & 0xFF;
+        sensorTypes = new int[typeCount];
+        valueCounts = new int[typeCount];
+        labels = new String[typeCount];
+
+        for (int i = 0; i < typeCount; i++) {
+            if (!ensure(4 + 1 + 1)) {
+                throw new IOException("Truncated sensor recording header");
+            }
+            sensorTypes[i] = buffer.getInt();
+            valueCounts[i] = buffer.get() & 0xFF;
+            int labelLength = buffer.get() & 0xFF;
+
+            if (!ensure(labelLength)) {
+                throw new IOException("Truncated sensor recording header");
+            }
+            byte[] label = new byte[labelLength];
+            buffer.get(label);
+            labels[i] = new String(label, StandardCharsets.US_ASCII);
+
+            if (valueCounts[i] > SensorRecordFormat.MAX_VALUE_COUNT) {
+                throw new IOException("Invalid value count for " + labels[i]);
+            }
+        }
+    }
+
+    /**
+     * Advances to the next record.
+     *
+     * @return false if the end of the recording is reached
+     */
+    public boolean next() throws IOException {
+        if (!ensure(1)) {
+            return false;
+        }
+        int index = buffer.get(buffer.position()) & 0xFF;
+        if (index >= sensorTypes.length) {
+            throw new IOException("Invalid sensor type index " + index);
+        }
+        if (!ensure(SensorRecordFormat.recordSize(valueCounts[index]))) {
+            // torn record at the end of the file
+            return false;
+        }
+
+        typeIndex = buffer.get() & 0xFF;
+        timestamp = buffer.getLong();
+        for (int i = 0; i < valueCounts[typeIndex]; i++) {
+            values[i] = buffer.getFloat();
+        }
+        return true;
+    }
+
+    // makes sure that at least the given number of bytes is available within the buffer
+    private boolean ensure(int bytes) throws IOException {
+        while (buffer.remaining() < bytes) {
+            if (endOfStream) {
+                return false;
+            }
+            buffer.compact();
+            if (channel.read(buffer) < 0) {
+                endOfStream = true;
+            }
+            buffer.flip();
+        }
+        return true;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getSensorType() {
+        return sensorTypes[typeIndex];
+    }
+
+    public String getLabel() {
+        return labels[typeIndex];
+    }
+
+    public int getValueCount() {
+        return valueCounts[typeIndex];
+    }
+
+    public float getValue(int i) {
+        return values[i];
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
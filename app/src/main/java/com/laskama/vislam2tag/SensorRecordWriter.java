@@ -0,0 +1,119 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes IMU events as binary records (see {@link SensorRecordFormat}).
+ *
+ * Records are encoded into a preallocated buffer, which is written to the sink once it is full or
+ * {@link #flush()} is called (by the {@link SensorDrainThread} at least every 100 ms, such that
+ * only few events are lost if the app is killed). Appending a record does not allocate any
+ * objects.
+ */
+public class SensorRecordWriter {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final RecordSink sink;
+    private final ByteBuffer buffer;
+
+    private long recordCount = 0;
+
+    public SensorRecordWriter(RecordSink sink) {
+        this(sink, DEFAULT_BUFFER_SIZE);
+    }
+
+    public SensorRecordWriter(RecordSink sink, int bufferSize) {
+        this.sink = sink;
+        this.buffer = ByteBuffer.allocateDirect(
+                Math.max(bufferSize, SensorRecordFormat.headerSize() + SensorRecordFormat.MAX_RECORD_SIZE));
+        this.buffer.order(SensorRecordFormat.BYTE_ORDER);
+
+        SensorRecordFormat.writeHeader(buffer);
+    }
+
+    /**
+     * Appends a single sensor event.
+     *
+     * @param timestamp SensorEvent.timestamp
+     * @param sensorType android sensor type (Sensor.TYPE_*)
+     * @param values SensorEvent.values
+     * @return false if the sensor type is not part of the recording schema
+     */
+    public boolean append(long timestamp, int sensorType, float[] values) throws IOException {
+        return append(timestamp, sensorType, values, 0, values.length);
+    }
+
+    /**
+     * Appends a single sensor event whose values are stored at values[offset, offset + length).
+     */
+    public boolean append(long timestamp, int sensorType, float[] values, int offset, int length)
+            throws IOException {
+        int index = SensorRecordFormat.indexOf(sensorType);
+        if (index < 0) {
+            return false;
+        }
+
+        if (buffer.remaining() < SensorRecordFormat.MAX_RECORD_SIZE) {
+            flush();
+        }
+
+        int valueCount = SensorRecordFormat.valueCount(index);
+        buffer.put((byte) index);
+        buffer.putLong(timestamp);
+        for (int i = 0; i < valueCount; i++) {
+            // some devices report less values than specified (e.g. rotation vector without accuracy)
+            buffer.putFloat(i < length ? values[offset + i] : 0.f);
+        }
+        recordCount ++;
+
+        return true;
+    }
+
+    /** Writes all buffered records to the sink, which only contains complete records afterwards. */
+    public void flush() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        sink.write(buffer);
+        buffer.clear();
+        sink.commit();
+    }
+
+    /** Writes all buffered records and trims the file to them (see {@link RecordSink#trim()}). */
+    public void trim() throws IOException {
+        flush();
+        sink.trim();
+    }
+
+    public void preallocate() throws IOException {
+        sink.preallocate();
+    }
+
+    public void close() throws IOException {
+        flush();
+        sink.close();
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+}
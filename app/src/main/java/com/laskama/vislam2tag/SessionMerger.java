@@ -0,0 +1,199 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merges the streams of recorded session folders into a single time ordered log (merged.csv),
+ * same as the optional merged output during a recording (see {@link StreamMerger}). IMU events
+ * and WLAN scans are read from sensors.bin and wifi.bin or, for older sessions, from their csv
+ * files. Files of a session that was not closed (app killed) are recovered first, see
+ * {@link MappedRecordFile#recover(File)}.
+ *
+ * Can be run on a desktop machine:
+ *   java com.laskama.vislam2tag.SessionMerger <session> [<session> ...]
+ */
+public class SessionMerger {
+
+    public static final String MERGED_FILE = "merged.csv";
+
+    // records that are buffered per stream, the reorder window of each stream
+    private static final int WINDOW = 1024;
+
+    /** Lines of a single stream of the session. */
+    private interface LineSource extends Closeable {
+        /** Next line without line break, null at the end of the stream. */
+        String next() throws IOException;
+    }
+
+    private static LineSource csvSource(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        return new LineSource() {
+            @Override
+            public String next() throws IOException {
+                return reader.readLine();
+            }
+
+            @Override
+            public void close() throws IOException {
+                reader.close();
+            }
+        };
+    }
+
+    private static LineSource sensorSource(File binFile) throws IOException {
+        SensorRecordReader reader = new SensorRecordReader(new FileInputStream(binFile).getChannel());
+        StringBuilder line = new StringBuilder(128);
+        return new LineSource() {
+            @Override
+            public String next() throws IOException {
+                if (!reader.next()) {
+                    return null;
+                }
+                line.setLength(0);
+                SensorCsvConverter.appendCsvLine(reader, line);
+                return line.substring(0, line.length() - 1);
+            }
+
+            @Override
+            public void close() throws IOException {
+                reader.close();
+            }
+        };
+    }
+
+    private static LineSource wifiSource(File binFile) throws IOException {
+        WifiRecordReader reader = new WifiRecordReader(new FileInputStream(binFile).getChannel());
+        StringBuilder line = new StringBuilder(128);
+        return new LineSource() {
+            // next access point of the current scan
+            int next = 0;
+
+            @Override
+            public String next() throws IOException {
+                while (next == reader.getAccessPointCount()) {
+                    if (!reader.nextScan()) {
+                        return null;
+                    }
+                    next = 0;
+                }
+                line.setLength(0);
+                WifiCsvConverter.appendCsvLine(reader, next ++, line);
+                return line.substring(0, line.length() - 1);
+            }
+
+            @Override
+            public void close() throws IOException {
+                reader.close();
+            }
+        };
+    }
+
+    /**
+     * Merges all streams of the session folder into its merged.csv.
+     *
+     * @return statistics per stream, see {@link StreamMerger#getStatsLines()}
+     */
+    public static List<String> merge(File sessionDir) throws IOException {
+        // removes the reserved space and torn records before any file is read
+        MappedRecordFile.recover(sessionDir);
+
+        List<SessionStream> streams = new ArrayList<>();
+        List<LineSource> sources = new ArrayList<>();
+
+        try (RecordSink output = new MappedRecordFile(new File(sessionDir, MERGED_FILE))) {
+            StreamMerger merger = new StreamMerger(output, StreamMerger.NO_MAX_DELAY);
+            try {
+                for (SessionStream stream : SessionStream.values()) {
+                    File file = new File(sessionDir, stream.fileName);
+                    File sensorFile = new File(sessionDir, "sensors.bin");
+                    File wifiFile = new File(sessionDir, "wifi.bin");
+                    if (stream == SessionStream.SENSORS && sensorFile.exists()) {
+                        sources.add(sensorSource(sensorFile));
+                    } else if (stream == SessionStream.WIFI && wifiFile.exists()) {
+                        sources.add(wifiSource(wifiFile));
+                    } else if (file.exists()) {
+                        sources.add(csvSource(file));
+                    } else {
+                        continue;
+                    }
+                    streams.add(stream);
+                    merger.addStream(stream.name(), WINDOW);
+                }
+
+                // the merger writes a record once every open stream has a full window, hence the
+                // window of each stream is refilled after every written record
+                boolean[] done = new boolean[sources.size()];
+                int open = sources.size();
+                while (open > 0) {
+                    for (int i = 0; i < sources.size(); i++) {
+                        if (!done[i] && !fill(merger, i, streams.get(i), sources.get(i))) {
+                            done[i] = true;
+                            open --;
+                            merger.closeStream(i);
+                        }
+                    }
+                }
+                merger.finish();
+            } finally {
+                for (LineSource source : sources) {
+                    source.close();
+                }
+            }
+            return merger.getStatsLines();
+        }
+    }
+
+    // offers lines of the source until its window is full, returns false at the end of the stream
+    private static boolean fill(StreamMerger merger, int streamId, SessionStream stream, LineSource source)
+            throws IOException {
+        while (merger.getBufferedCount(streamId) < WINDOW) {
+            String line = source.next();
+            if (line == null) {
+                return false;
+            }
+            try {
+                merger.offer(streamId, stream.timestampOf(line), line);
+            } catch (NumberFormatException e) {
+                // header or torn line
+            }
+        }
+        return true;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: SessionMerger <session> [<session> ...]");
+            System.exit(1);
+        }
+        for (String arg : args) {
+            File sessionDir = new File(arg);
+            System.out.println("Merging " + sessionDir.getPath());
+            for (String line : merge(sessionDir)) {
+                System.out.print(line);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+/**
+ * Record streams of a recording session that can be merged into a single time ordered log (see
+ * {@link StreamMerger}), with the file and the timestamp column of each stream.
+ */
+public enum SessionStream {
+
+    SENSORS("sensors.csv", 0, 1),
+    // ScanResult.timestamp, microseconds since boot
+    WIFI("wifi.csv", 1, 1000),
+    POSES("poses.csv", 0, 1),
+    INIT_POSES("initPoses.csv", 1, 1),
+    REF_MARKER("refMarker.csv", 1, 1),
+    FINGERPRINTS("fingerprints.csv", 1, 1),
+    SCANS("scans.csv", 1, 1);
+
+    public final String fileName;
+    private final int timestampColumn;
+    // factor to nanoseconds of the common time base (see Timebase)
+    private final long timestampScale;
+
+    SessionStream(String fileName, int timestampColumn, long timestampScale) {
+        this.fileName = fileName;
+        this.timestampColumn = timestampColumn;
+        this.timestampScale = timestampScale;
+    }
+
+    /** Stream that is written to the given file, null if the file is not a merged stream. */
+    public static SessionStream ofFile(String fileName) {
+        for (SessionStream stream : values()) {
+            if (stream.fileName.equals(fileName)) {
+                return stream;
+            }
+        }
+        return null;
+    }
+
+    /** Timestamp in nanoseconds since boot of the given value of the timestamp column. */
+    public long timestampOf(long value) {
+        return value * timestampScale;
+    }
+
+    /**
+     * Timestamp of a line in nanoseconds since boot.
+     *
+     * @throws NumberFormatException if the line has no valid timestamp.
+     */
+    public long timestampOf(String line) {
+        int start = 0;
+        for (int i = 0; i < timestampColumn; i++) {
+            start = line.indexOf(';', start) + 1;
+            if (start == 0) {
+                throw new NumberFormatException("Missing timestamp column: " + line);
+            }
+        }
+        int end = line.indexOf(';', start);
+        if (end < 0) {
+            end = line.length();
+        }
+        return timestampOf(Long.parseLong(line.substring(start, end).trim()));
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * K-way merge of several record streams (e.g. sensors.csv, poses.csv, wifi.csv) into a single
+ * log that is ordered by timestamp. Lines of the merged log: timestamp; STREAM; original line
+ *
+ * Records of a single stream may be slightly out of order, hence every stream has a bounded
+ * reorder window (number of buffered records). A record is written once no stream can deliver an
+ * older record anymore, i.e. every open stream
+ *  - has a full reorder window (its oldest buffered record is assumed to be its next one),
+ *  - or has declared a watermark (no records older than it will follow) beyond the record,
+ *  - or is more than maxDelayNanos behind the newest timestamp of all streams (for idle streams
+ *    during a recording, disabled with {@link #NO_MAX_DELAY}).
+ * Records that arrive after newer records were already written are late: they are written
+ * immediately (out of order) and counted per stream.
+ *
+ * All methods are synchronized, records can be offered from several threads.
+ */
+public class StreamMerger {
+
+    public static final long NO_MAX_DELAY = Long.MAX_VALUE;
+
+    // number of written records after which the output is committed
+    private static final int COMMIT_INTERVAL = 256;
+
+    private static class Record {
+        final long timestamp;
+        final long sequence;
+        final String line;
+
+        Record(long timestamp, long sequence, String line) {
+            this.timestamp = timestamp;
+            this.sequence = sequence;
+            this.line = line;
+        }
+    }
+
+    // records with equal timestamps keep their offer order
+    private static final Comparator<Record> ORDER = (a, b) -> a.timestamp != b.timestamp
+            ? Long.compare(a.timestamp, b.timestamp) : Long.compare(a.sequence, b.sequence);
+
+    private static class Stream {
+        final String name;
+        final int window;
+        final PriorityQueue<Record> buffer = new PriorityQueue<>(16, ORDER);
+        long watermark = Long.MIN_VALUE;
+        boolean closed = false;
+
+        long offeredCount = 0;
+        long lateCount = 0;
+        long maxLatenessNanos = 0;
+
+        Stream(String name, int window) {
+            this.name = name;
+            this.window = window;
+        }
+    }
+
+    private final RecordSink output;
+    private final long maxDelayNanos;
+    private final List<Stream> streams = new ArrayList<>();
+    private final StringBuilder text = new StringBuilder(256);
+
+    private long sequence = 0;
+    private long maxTimestamp = Long.MIN_VALUE;
+    private long lastWrittenTimestamp = Long.MIN_VALUE;
+    private long writtenCount = 0;
+    private int uncommittedCount = 0;
+
+    public StreamMerger(RecordSink output, long maxDelayNanos) {
+        this.output = output;
+        this.maxDelayNanos = maxDelayNanos;
+    }
+
+    /**
+     * @param window size of the reorder window (number of records).
+     * @return id of the stream.
+     */
+    public synchronized int addStream(String name, int window) {
+        streams.add(new Stream(name, Math.max(1, window)));
+        return streams.size() - 1;
+    }
+
+    /** Offers a record (line without line break) of the given stream. */
+    public synchronized void offer(int streamId, long timestamp, String line) throws IOException {
+        Stream stream = streams.get(streamId);
+        stream.offeredCount ++;
+        if (timestamp > maxTimestamp) {
+            maxTimestamp = timestamp;
+        }
+
+        if (timestamp < lastWrittenTimestamp) {
+            stream.lateCount ++;
+            stream.maxLatenessNanos = Math.max(stream.maxLatenessNanos, lastWrittenTimestamp - timestamp);
+            write(stream, timestamp, line);
+            return;
+        }
+
+        stream.buffer.add(new Record(timestamp, sequence ++, line));
+        drain();
+    }
+
+    /** Declares that the stream will not deliver records older than the watermark. */
+    public synchronized void advance(int streamId, long watermark) throws IOException {
+        Stream stream = streams.get(streamId);
+        if (watermark > stream.watermark) {
+            stream.watermark = watermark;
+            drain();
+        }
+    }
+
+    /** Declares the end of a stream. */
+    public synchronized void closeStream(int streamId) throws IOException {
+        streams.get(streamId).closed = true;
+        drain();
+    }
+
+    /** Closes all streams and writes all remaining records. The output is not closed. */
+    public synchronized void finish() throws IOException {
+        for (int i = 0; i < streams.size(); i++) {
+            streams.get(i).closed = true;
+        }
+        drain();
+        output.commit();
+        uncommittedCount = 0;
+    }
+
+    /**
+     * Commits the records written so far and trims the output to them (see
+     * {@link RecordSink#trim()}). Buffered records stay in their reorder window.
+     */
+    public synchronized void trim() throws IOException {
+        output.commit();
+        uncommittedCount = 0;
+        output.trim();
+    }
+
+    /** Reserves space in the output again (see {@link #trim()}). */
+    public synchronized void preallocate() throws IOException {
+        output.preallocate();
+    }
+
+    private void drain() throws IOException {
+        long delayWatermark = maxDelayNanos == NO_MAX_DELAY || maxTimestamp == Long.MIN_VALUE
+                ? Long.MIN_VALUE : maxTimestamp - maxDelayNanos;
+
+        while (true) {
+            // oldest buffered record of all streams and the timestamp up to which no stream can
+            // deliver an older record
+            Stream oldest = null;
+            long bound = Long.MAX_VALUE;
+            for (int i = 0; i < streams.size(); i++) {
+                Stream stream = streams.get(i);
+                Record head = stream.buffer.peek();
+                if (head != null && (oldest == null || ORDER.compare(head, oldest.buffer.peek()) < 0)) {
+                    oldest = stream;
+                }
+                if (!stream.closed && stream.buffer.size() < stream.window) {
+                    bound = Math.min(bound, Math.max(stream.watermark, delayWatermark));
+                }
+            }
+
+            if (oldest == null || oldest.buffer.peek().timestamp > bound) {
+                return;
+            }
+            Record record = oldest.buffer.poll();
+            write(oldest, record.timestamp, record.line);
+        }
+    }
+
+    private void write(Stream stream, long timestamp, String line) throws IOException {
+        text.setLength(0);
+        text.append(timestamp).append("; ").append(stream.name).append("; ").append(line).append('\n');
+        output.write(text);
+
+        if (timestamp > lastWrittenTimestamp) {
+            lastWrittenTimestamp = timestamp;
+        }
+        writtenCount ++;
+        if (++ uncommittedCount >= COMMIT_INTERVAL) {
+            output.commit();
+            uncommittedCount = 0;
+        }
+    }
+
+    /** Number of records of the stream that are buffered in its reorder window. */
+    public synchronized int getBufferedCount(int streamId) {
+        return streams.get(streamId).buffer.size();
+    }
+
+    public synchronized long getWrittenCount() {
+        return writtenCount;
+    }
+
+    public synchronized long getLateCount() {
+        long late = 0;
+        for (int i = 0; i < streams.size(); i++) {
+            late += streams.get(i).lateCount;
+        }
+        return late;
+    }
+
+    /** Statistics per stream: stream; offered; late; max lateness (ns) */
+    public synchronized List<String> getStatsLines() {
+        List<String> lines = new ArrayList<>();
+        lines.add("stream; offered; late; max_lateness_ns\n");
+        for (int i = 0; i < streams.size(); i++) {
+            Stream stream = streams.get(i);
+            lines.add(stream.name + "; " + stream.offeredCount + "; " + stream.lateCount + "; "
+                    + stream.maxLatenessNanos + "\n");
+        }
+        return lines;
+    }
+}
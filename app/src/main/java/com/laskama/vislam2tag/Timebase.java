@@ -0,0 +1,122 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Common time base of all recorded streams: nanoseconds since boot including deep sleep
+ * (CLOCK_BOOTTIME, i.e. SystemClock.elapsedRealtimeNanos). IMU events are already stamped in
+ * this time base, WLAN scan results in microseconds of it.
+ *
+ * The relation of the other clocks of a session (wall clock, monotonic clock, camera frame
+ * timestamps) to this time base is written to a calibration file (clock.csv), each line holds
+ * the offset such that: clock = boot time + offset.
+ */
+public final class Timebase {
+
+    public static final String CALIBRATION_FILE = "clock.csv";
+
+    // number of samples per calibration, the one with the shortest read interval is used
+    private static final int CALIBRATION_SAMPLES = 10;
+
+    private Timebase() {
+    }
+
+    /** Current time in the common time base. */
+    public static long now() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+
+    /** Converts a timestamp in microseconds since boot (e.g. ScanResult.timestamp). */
+    public static long fromBootMicros(long micros) {
+        return micros * 1000;
+    }
+
+    /**
+     * Estimates the offset of a clock whose timestamps are taken some (unknown, positive) time
+     * before they are processed: the largest observed difference (clock timestamp - boot time at
+     * processing) is the offset minus the smallest latency.
+     *
+     * Must be fed by a single thread.
+     */
+    public static class OffsetEstimator {
+        private final String clock;
+        private volatile long maxOffset = Long.MIN_VALUE;
+        private volatile long count = 0;
+
+        public OffsetEstimator(String clock) {
+            this.clock = clock;
+        }
+
+        public void add(long clockTimestamp, long bootTimestamp) {
+            long offset = clockTimestamp - bootTimestamp;
+            if (offset > maxOffset) {
+                maxOffset = offset;
+            }
+            count ++;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getOffset() {
+            return maxOffset;
+        }
+    }
+
+    /** Calibration lines of the wall clock and the monotonic clock, taken now. */
+    public static List<String> sampleClocks(String at) {
+        long bestInterval = Long.MAX_VALUE;
+        long boot = 0;
+        long wall = 0;
+        long monotonic = 0;
+        for (int i = 0; i < CALIBRATION_SAMPLES; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            long w = System.currentTimeMillis();
+            long m = System.nanoTime();
+            long end = SystemClock.elapsedRealtimeNanos();
+            if (end - start < bestInterval) {
+                bestInterval = end - start;
+                boot = start + (end - start) / 2;
+                wall = w * 1_000_000;
+                monotonic = m;
+            }
+        }
+
+        List<String> lines = new ArrayList<>();
+        // the wall clock has a resolution of 1 ms
+        lines.add(String.format("REALTIME; %s; %d; %d; 1\n", at, wall - boot, bestInterval + 1_000_000));
+        lines.add(String.format("MONOTONIC; %s; %d; %d; 1\n", at, monotonic - boot, bestInterval));
+        return lines;
+    }
+
+    /** Calibration line of a clock whose offset was estimated from its timestamps. */
+    public static String estimatedOffsetLine(OffsetEstimator estimator, String at) {
+        // the uncertainty is the (unknown) smallest latency, hence it is not given
+        return String.format("%s; %s; %d; -1; %d\n", estimator.clock, at,
+                estimator.getCount() > 0 ? estimator.getOffset() : 0, estimator.getCount());
+    }
+
+    public static String calibrationHeader() {
+        return "clock; at; offset_ns; uncertainty_ns; samples\n";
+    }
+}
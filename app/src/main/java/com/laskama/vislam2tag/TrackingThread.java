@@ -0,0 +1,176 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLSurface;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.os.Process;
+import android.util.Log;
+
+import com.google.ar.core.Frame;
+import com.google.ar.core.Session;
+import com.google.ar.core.exceptions.CameraNotAvailableException;
+
+/**
+ * Runs the ARCore session updates (tracking) independent of the rendering.
+ *
+ * The thread owns an offscreen EGL context (1x1 pbuffer) with its own camera texture, hence the
+ * session can be updated without any visible surface. Session.update() blocks until the next
+ * camera frame is available, i.e. frames are processed at the camera frame rate.
+ */
+public class TrackingThread extends Thread {
+
+    private static final String TAG = TrackingThread.class.getSimpleName();
+
+    /** Processes every frame that is obtained from the session (on the tracking thread). */
+    public interface FrameConsumer {
+        void processFrame(Frame frame);
+    }
+
+    private final Session session;
+    // held during every update, the session must not be paused while it is updated
+    private final Object sessionLock;
+    private final FrameConsumer consumer;
+    // runs with the session lock held before every update (e.g. applies a pending configuration)
+    private final Runnable beforeUpdate;
+
+    private volatile boolean running = true;
+    private volatile long frameCount = 0;
+
+    private EGLDisplay display = EGL14.EGL_NO_DISPLAY;
+    private EGLContext context = EGL14.EGL_NO_CONTEXT;
+    private EGLSurface surface = EGL14.EGL_NO_SURFACE;
+    private final int[] cameraTexture = new int[1];
+
+    public TrackingThread(Session session, Object sessionLock, Runnable beforeUpdate, FrameConsumer consumer) {
+        super("TrackingThread");
+        this.session = session;
+        this.sessionLock = sessionLock;
+        this.beforeUpdate = beforeUpdate;
+        this.consumer = consumer;
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+        try {
+            setupEgl();
+
+            while (running) {
+                synchronized (sessionLock) {
+                    if (!running) {
+                        break;
+                    }
+                    try {
+                        beforeUpdate.run();
+                        Frame frame = session.update();
+                        consumer.processFrame(frame);
+                        frameCount ++;
+                    } catch (CameraNotAvailableException e) {
+                        Log.e(TAG, "Camera not available", e);
+                        break;
+                    } catch (Exception e) {
+                        // Avoid stopping the tracking due to unhandled exceptions.
+                        Log.e(TAG, "Exception on the tracking thread", e);
+                    }
+                }
+            }
+        } finally {
+            releaseEgl();
+        }
+    }
+
+    private void setupEgl() {
+        display = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(display, version, 0, version, 1)) {
+            throw new IllegalStateException("eglInitialize failed: " + EGL14.eglGetError());
+        }
+
+        int[] configAttributes = {
+                EGL14.EGL_RED_SIZE, 8,
+                EGL14.EGL_GREEN_SIZE, 8,
+                EGL14.EGL_BLUE_SIZE, 8,
+                EGL14.EGL_ALPHA_SIZE, 8,
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_PBUFFER_BIT,
+                EGL14.EGL_NONE
+        };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] configCount = new int[1];
+        if (!EGL14.eglChooseConfig(display, configAttributes, 0, configs, 0, 1, configCount, 0)
+                || configCount[0] == 0) {
+            throw new IllegalStateException("No EGL config for a pbuffer surface: " + EGL14.eglGetError());
+        }
+
+        int[] contextAttributes = {EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE};
+        context = EGL14.eglCreateContext(display, configs[0], EGL14.EGL_NO_CONTEXT, contextAttributes, 0);
+
+        int[] surfaceAttributes = {EGL14.EGL_WIDTH, 1, EGL14.EGL_HEIGHT, 1, EGL14.EGL_NONE};
+        surface = EGL14.eglCreatePbufferSurface(display, configs[0], surfaceAttributes, 0);
+
+        if (!EGL14.eglMakeCurrent(display, surface, surface, context)) {
+            throw new IllegalStateException("eglMakeCurrent failed: " + EGL14.eglGetError());
+        }
+
+        // camera texture that ARCore fills during update() (never drawn)
+        GLES20.glGenTextures(1, cameraTexture, 0);
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, cameraTexture[0]);
+        GLES20.glTexParameteri(
+                GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_NEAREST);
+        GLES20.glTexParameteri(
+                GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_NEAREST);
+
+        synchronized (sessionLock) {
+            session.setCameraTextureName(cameraTexture[0]);
+        }
+    }
+
+    private void releaseEgl() {
+        if (display == EGL14.EGL_NO_DISPLAY) {
+            return;
+        }
+        if (context != EGL14.EGL_NO_CONTEXT) {
+            GLES20.glDeleteTextures(1, cameraTexture, 0);
+        }
+        EGL14.eglMakeCurrent(display, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+        if (surface != EGL14.EGL_NO_SURFACE) {
+            EGL14.eglDestroySurface(display, surface);
+        }
+        if (context != EGL14.EGL_NO_CONTEXT) {
+            EGL14.eglDestroyContext(display, context);
+        }
+        // the display is shared with the GLSurfaceView, hence it is not terminated
+        EGL14.eglReleaseThread();
+        display = EGL14.EGL_NO_DISPLAY;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /** Stops the updates after the current frame and waits until the thread has finished. */
+    public void shutdown() throws InterruptedException {
+        running = false;
+        join();
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import java.nio.ByteBuffer;
+
+/** Allocation-free UTF-8 encoding of char sequences into byte buffers. */
+final class Utf8 {
+
+    // maximum number of bytes a single char (or surrogate pair) is encoded to
+    static final int MAX_BYTES_PER_CHAR = 4;
+
+    private Utf8() {
+    }
+
+    /**
+     * Encodes text[from, to) into the buffer, stops early if the buffer has less than
+     * {@link #MAX_BYTES_PER_CHAR} bytes left.
+     *
+     * @return index of the first char that was not encoded
+     */
+    static int encode(CharSequence text, int from, int to, ByteBuffer out) {
+        int i = from;
+        while (i < to && out.remaining() >= MAX_BYTES_PER_CHAR) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < to && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, text.charAt(i + 1));
+                out.put((byte) (0xF0 | (cp >> 18)));
+                out.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (cp & 0x3F)));
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                // unpaired surrogate
+                out.put((byte) '?');
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+            i++;
+        }
+        return i;
+    }
+}
@@ -21,6 +21,7 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.graphics.ImageFormat;
 import android.hardware.Sensor;
@@ -33,9 +34,13 @@ import android.net.wifi.WifiManager;
 import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.os.SystemClock;
 import android.util.Log;
 import android.view.View;
+import android.view.WindowManager;
 import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -74,17 +79,20 @@ import com.google.ar.core.exceptions.UnavailableSdkTooOldException;
 import com.google.ar.core.exceptions.UnavailableUserDeclinedInstallationException;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.text.DecimalFormatSymbols;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -96,10 +104,7 @@ public class VIslam2tagActivity extends AppCompatActivity implements GLSurfaceVi
       "\tUnrotated Camera %s %s Intrinsics:\n\tFocal Length: (%.2f, %.2f)"
           + "\n\tPrincipal Point: (%.2f, %.2f)"
           + "\n\t%s Image Dimensions: (%d, %d)"
-          + "\n\tUnrotated Field of View: (%.2f˚, %.2f˚)"
-          + "\n\tRender frame time: %.1f ms (%.0ffps)"
-          + "\n\tCPU image frame time: %.1f ms (%.0ffps)"
-          + "\n\tPose: %s";
+          + "\n\tUnrotated Field of View: (%.2f˚, %.2f˚)";
   private static final float RADIANS_TO_DEGREES = (float) (180 / Math.PI);
 
   //
@@ -124,11 +129,47 @@ public class VIslam2tagActivity extends AppCompatActivity implements GLSurfaceVi
   private TextView cameraIntrinsicsTextView;
   private TextView rssTextView;
 
+  // Debug info (intrinsics + live metrics) shown in the camera intrinsics text view, updated on
+  // the UI thread at a fixed rate instead of on every frame
+  private static final long HUD_UPDATE_INTERVAL_MS = 250;
+  private final HudText hudText = new HudText();
+  private final Runnable hudUpdater = this::updateHud;
+  // computed once per camera config on the GL thread
+  private volatile String cameraIntrinsicsText;
+  // latest camera position (tx, ty, tz), written by the GL thread
+  private final float[] hudCameraPosition = new float[3];
+  private long[] hudSensorCounts;
+  private long hudLastUpdateNanos = 0;
+  private long recordingStartNanos;
+
   private final FrameTimeHelper renderFrameTimeHelper = new FrameTimeHelper();
   private final FrameTimeHelper cpuImageFrameTimeHelper = new FrameTimeHelper();
+  private final FrameTimeHelper gpuEdgeFrameTimeHelper = new FrameTimeHelper();
 
   private EdgeDetector edgeDetector = new EdgeDetector();
 
+  // Camera preview: OFF shows the camera image only (no CPU image is acquired), LOW_RATE updates
+  // the edge detection overlay PREVIEW_LOW_RATE_FPS times per second, FULL on every frame.
+  // Selected with the preview button, the choice is kept in the preferences
+  private volatile PreviewMode previewMode = PreviewMode.FULL;
+  private static final String PREF_PREVIEW_MODE = "previewMode";
+  private static final int PREVIEW_LOW_RATE_FPS = 4;
+  private long lastPreviewUpdateNanos = 0;
+  private Button previewModeButton;
+
+  // Edge overlay computed by a shader on the camera texture (true) or by the CPU EdgeDetector,
+  // selected with the edge detection button, the choice is kept in the preferences
+  private volatile boolean gpuEdgeDetection = true;
+  private static final String PREF_GPU_EDGE_DETECTION = "gpuEdgeDetection";
+  private Button edgeDetectionButton;
+  // size of the camera texture (GPU image) of the current camera config
+  private volatile int[] cameraTextureSize;
+
+  // Upload the CPU edge image alternately into two textures, such that the upload does not wait
+  // for the GPU still sampling the texture of the previous frame (disabled with this extra = false)
+  public static final String EXTRA_DOUBLE_BUFFERED_UPLOAD = "com.laskama.vislam2tag.DOUBLE_BUFFERED_UPLOAD";
+  private boolean doubleBufferedOverlayUpload;
+
   //
   // VI-SLAM2tag instance variables
   //
@@ -139,52 +180,178 @@ public class VIslam2tagActivity extends AppCompatActivity implements GLSurfaceVi
   // which can be used for assesing the labeling accuracy
   private boolean CP_VALIDATION_ENABLED = false;
 
+  // if this extra is true, the screen is dimmed and nothing is rendered during the recording. The
+  // ARCore session is updated by a dedicated tracking thread at the camera frame rate (see
+  // TrackingThread), which saves power on long surveys and decouples the pose capture from
+  // rendering stalls
+  public static final String EXTRA_SCREEN_DIMMED_RECORDING = "com.laskama.vislam2tag.SCREEN_DIMMED_RECORDING";
+  private boolean screenDimmedRecording;
+  private static final float DIMMED_SCREEN_BRIGHTNESS = 0.01f;
+  private TrackingThread trackingThread;
+
   // sensor recordings
   private TaskRunner taskRunner;
   private SensorManager manager;
   private BroadcastReceiver wifiScanReceiver;
   private WifiManager wifiManager;
-
-  // FileWriter for logging data (each data source has its own writer)
-  private FileWriter writer;
-  private FileWriter wifiWriter;
-  private FileWriter poseWriter;
-  private FileWriter initPoseWriter;
-  private FileWriter refMarkerWriter;
-
-  // Whether data logging is enabled
-  private boolean writeFiles = true;
-
-  // Local data structure for storing logged data until written to disk as batch job
-  private List<String> sensorLines = new ArrayList<>();
-  private List<String> poseLines = new ArrayList<>();
-  private List<String> initPoseLines = new ArrayList<>();
-
-  // List for storing the currently tracked Augmented images
+  // scan results are received, encoded and the next scans are scheduled on the WLAN thread,
+  // such that the binder call of getScanResults does not block the main thread
+  private HandlerThread wifiThread;
+  private Handler wifiHandler;
+
+  // WLAN scans are requested by the scan scheduler, which backs off while android throttles the
+  // requests. Every delivered scan is tagged as fresh or cached in scans.csv
+  private static final long SCAN_MIN_INTERVAL_NANOS = 0;
+  private static final long SCAN_INITIAL_BACKOFF_NANOS = 2_000_000_000L;
+  private static final long SCAN_MAX_BACKOFF_NANOS = 60_000_000_000L;
+  private static final long SCAN_TIMEOUT_NANOS = 15_000_000_000L;
+  private ScanScheduler scanScheduler;
+  private WriterLane scanLane;
+  // encodes the scans of the current recording (written by the main thread, used by the WLAN thread)
+  private volatile WifiScanEncoder wifiScanEncoder;
+
+  // IMU events are buffered in a preallocated ring buffer and serialized by a dedicated thread
+  // into a binary file (see SensorRecordFormat)
+  private static final int SENSOR_BUFFER_CAPACITY = 8192;
+  private static final SensorEventRing.OverflowPolicy SENSOR_OVERFLOW_POLICY =
+          SensorEventRing.OverflowPolicy.COUNT_AND_DROP;
+  private SensorEventRing sensorRing;
+  private SensorDrainThread sensorDrainThread;
+  private RecordSink sensorSink;
+
+  // Sampling period and hardware batching latency per IMU sensor (assets/sensor_profile.json)
+  private SensorProfile sensorProfile;
+
+  // IMU callbacks are delivered on a dedicated high priority thread instead of the main looper,
+  // such that UI work does not delay them
+  private HandlerThread sensorThread;
+  private Handler sensorHandler;
+
+  // Callback latency per IMU sensor measured from the delivery of each batch (see
+  // SensorBatchLatency), recorded on the sensor thread, indexed like SensorRecordFormat
+  private SensorBatchLatency[] sensorLatency;
+  // callbacks that follow each other within this gap belong to the same FIFO batch
+  private static final long SENSOR_BATCH_GAP_NANOS = 1_000_000L;
+
+  // Writer lanes for logging data (each data source has its own serial writer thread)
+  private WriterPipeline writerPipeline;
+  private WriterLane wifiLane;
+  // WLAN scans are written as binary records with a BSSID dictionary (wifi.bin, see
+  // WifiCsvConverter) instead of wifi.csv, unless this extra is false
+  public static final String EXTRA_WIFI_BINARY = "com.laskama.vislam2tag.WIFI_BINARY";
+  private boolean wifiBinary;
+  private WifiRecordWriter wifiWriter;
+  private WriterLane poseLane;
+  private WriterLane initPoseLane;
+  private WriterLane refMarkerLane;
+
+  // Recent camera poses for labeling each WLAN scan with the pose at the time the access points
+  // were measured (fingerprints.csv)
+  private static final int POSE_HISTORY_CAPACITY = 2048;
+  private static final long POSE_HISTORY_MAX_GAP_NANOS = 200_000_000L;
+  private final PoseHistory poseHistory = new PoseHistory(POSE_HISTORY_CAPACITY, POSE_HISTORY_MAX_GAP_NANOS);
+  private WriterLane fingerprintLane;
+
+  // Optional single time ordered log of all streams (merged.csv), next to the files per stream,
+  // enabled with this extra
+  public static final String EXTRA_MERGED_OUTPUT = "com.laskama.vislam2tag.MERGED_OUTPUT";
+  private boolean mergedOutput;
+  private static final long MERGE_MAX_DELAY_NANOS = 2_000_000_000L;
+  private static final int MERGE_SENSOR_WINDOW = 1024;
+  private static final int MERGE_WINDOW = 64;
+  private StreamMerger streamMerger;
+  private RecordSink mergedSink;
+
+  // Whether data logging is enabled (read by the sensor thread as well)
+  private volatile boolean writeFiles = true;
+
+  // Landmark poses (initPoses.csv) are formatted on the frame thread with NumberAppender (same
+  // decimal separator as String.format) and written as one batch once more than
+  // INIT_POSE_BATCH_LINES lines were collected
+  private static final int INIT_POSE_BATCH_LINES = 10;
+  private static final int POSE_DECIMALS = 6;
+  private final char decimalSeparator = DecimalFormatSymbols.getInstance().getDecimalSeparator();
+  private final StringBuilder initPoseText = new StringBuilder();
+  private int initPoseLineCount = 0;
+  // tx, ty, tz, qx, qy, qz, qw of the landmark pose that is formatted
+  private final float[] landmarkPoseValues = new float[7];
+
+  // Camera poses are collected in preallocated batches that are written once one of the limits
+  // is reached (records, age)
+  private static final PoseLog.FlushPolicy POSE_FLUSH_POLICY =
+          new PoseLog.FlushPolicy(30, 1_000_000_000L);
+  private PoseLog poseLog;
+
+  // All records are stamped in the common time base (Timebase), the relation to the other clocks
+  // is written to clock.csv
+  private List<String> clockCalibration;
+  private final Timebase.OffsetEstimator cameraClock = new Timebase.OffsetEstimator("CAMERA");
+  private final Timebase.OffsetEstimator sensorClock = new Timebase.OffsetEstimator("SENSOR");
+
+  // Augmented images that were tracked at least once (indexed by their database index)
   // those will be used for logging their poses for every received new camera frame
-  private List<AugmentedImage> trackedImages = new ArrayList<>();
+  private LandmarkRegistry landmarkRegistry;
+
+  // The augmented image database is deserialized once per session on a background thread and
+  // reused on every resume (accessed on the main thread only)
+  private AugmentedImageDatabase landmarkDatabase;
+  // session the database was loaded (or is being loaded) for
+  private Session landmarkDatabaseSession;
+  private long landmarkDatabaseLoadMillis = -1;
+  // whether the current session was configured, the configuration is kept across pause/resume
+  private boolean sessionConfigured = false;
+  // configuration that is applied by the thread that updates the session (before its next update)
+  private final AtomicReference<Config> pendingConfig = new AtomicReference<>();
+  private static final String IMAGE_LIST_ASSET = "myimages.imgdb-imglist.txt";
+
+  // Landmarks of a venue folder (images and imglist.txt) are used instead of the asset database
+  // if the activity is started with this extra: the folder name within <external files>/venues
+  // or an absolute path. The database is built at runtime and cached (see LandmarkDatabaseBuilder)
+  public static final String EXTRA_VENUE = "com.laskama.vislam2tag.VENUE";
+  private static final String VENUE_FOLDER = "venues";
+  private static final String LANDMARK_CACHE_FOLDER = "landmarks";
+  private File venueDir;
+
+  // Indices of the augmented images that were updated by ARCore in the current frame
+  private final BitSet updatedImages = new BitSet();
+
+  // Poses of tracked images are only logged if they changed by more than these epsilons
+  // (or if their tracking method changed), per landmark statistics are written to landmarks.csv
+  private static final float LANDMARK_TRANSLATION_EPSILON = 0.001f; // meters
+  private static final float LANDMARK_ROTATION_EPSILON = (float) Math.toRadians(0.1);
+  private final LandmarkObserver landmarkObserver =
+          new LandmarkObserver(LANDMARK_TRANSLATION_EPSILON, LANDMARK_ROTATION_EPSILON);
 
   // Button for registering whenever user passes reference marker (for evaluation purpose only)
   private Button markerButton;
 
   // counters for user feedback on how much data were already collected
-  private int rssCounter = 0;
+  private volatile int rssCounter = 0;
+  // counter value shown in rssTextView (updated by the HUD updater)
+  private int shownRssCounter = -1;
   private int markerCounter = 0;
 
-  private List<Integer> markerIdx = new ArrayList<>();
-
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
     setContentView(R.layout.activity_main);
 
+    // recording options, given as boolean extras (see the EXTRA_* constants)
+    Intent intent = getIntent();
+    screenDimmedRecording = getOption(intent, EXTRA_SCREEN_DIMMED_RECORDING, false);
+    wifiBinary = getOption(intent, EXTRA_WIFI_BINARY, true);
+    mergedOutput = getOption(intent, EXTRA_MERGED_OUTPUT, false);
+    doubleBufferedOverlayUpload = getOption(intent, EXTRA_DOUBLE_BUFFERED_UPLOAD, true);
+
     // connect the view with the activity (controller) and set listeners
     surfaceView = findViewById(R.id.surfaceview);
     cameraIntrinsicsTextView = findViewById(R.id.camera_intrinsics_view);
     rssTextView = findViewById(R.id.rssTextView);
     surfaceView = findViewById(R.id.surfaceview);
     markerButton = findViewById(R.id.markerButton);
+    previewModeButton = findViewById(R.id.previewModeButton);
+    edgeDetectionButton = findViewById(R.id.edgeDetectionButton);
 
     // Adapt the view of the app based on whether control-point validation is enabled
     if (CP_VALIDATION_ENABLED) {
@@ -194,20 +361,68 @@ public class VIslam2tagActivity extends AppCompatActivity implements GLSurfaceVi
       markerButton.setVisibility(View.INVISIBLE);
     }
 
+    // camera preview settings of the last launch
+    SharedPreferences preferences = getPreferences(Context.MODE_PRIVATE);
+    previewMode = PreviewMode.fromName(preferences.getString(PREF_PREVIEW_MODE, null), PreviewMode.FULL);
+    gpuEdgeDetection = preferences.getBoolean(PREF_GPU_EDGE_DETECTION, true);
+    previewModeButton.setOnClickListener(v -> {
+      previewMode = previewMode.next();
+      preferences.edit().putString(PREF_PREVIEW_MODE, previewMode.name()).apply();
+      updatePreviewButtons();
+    });
+    edgeDetectionButton.setOnClickListener(v -> {
+      gpuEdgeDetection = !gpuEdgeDetection;
+      preferences.edit().putBoolean(PREF_GPU_EDGE_DETECTION, gpuEdgeDetection).apply();
+      updatePreviewButtons();
+    });
+    updatePreviewButtons();
+
     // handle permissions once the activity is created
     requestAppPermissions();
 
     // CPU rendering setup (from examples)
     setupCPUrendering();
 
+    if (screenDimmedRecording) {
+      // nothing is rendered, hence there is no preview to configure
+      previewModeButton.setVisibility(View.GONE);
+      edgeDetectionButton.setVisibility(View.GONE);
+      // the screen must not turn off, otherwise the camera (and hence tracking) is stopped
+      getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+      WindowManager.LayoutParams layoutParams = getWindow().getAttributes();
+      layoutParams.screenBrightness = DIMMED_SCREEN_BRIGHTNESS;
+      getWindow().setAttributes(layoutParams);
+    }
+
     // Configure everything related to VI-SLAM2tag data recording
     // setup sensor manager that is used for registering listener to sensor events
     manager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
+    sensorProfile = SensorProfile.load(this);
+
+    venueDir = resolveVenue(getIntent());
+    landmarkRegistry = new LandmarkRegistry(countLandmarkImages());
 
     // setup wifi manager that is used for requesting WiFi network scans
     wifiManager = (WifiManager)
             getApplicationContext().getSystemService(Context.WIFI_SERVICE);
 
+    wifiThread = new HandlerThread("WifiThread");
+    wifiThread.start();
+    wifiHandler = new Handler(wifiThread.getLooper());
+    scanScheduler = new ScanScheduler(Timebase::now, wifiManager::startScan,
+            new ScanScheduler.Timer() {
+              @Override
+              public void schedule(Runnable task, long delayMillis) {
+                wifiHandler.postDelayed(task, delayMillis);
+              }
+
+              @Override
+              public void cancel(Runnable task) {
+                wifiHandler.removeCallbacks(task);
+              }
+            },
+            SCAN_MIN_INTERVAL_NANOS, SCAN_INITIAL_BACKOFF_NANOS, SCAN_MAX_BACKOFF_NANOS, SCAN_TIMEOUT_NANOS);
+
     // setup the wifi broadcast receiver that is called whenever a WiFi scan is completed
     wifiScanReceiver = new BroadcastReceiver() {
       @Override
@@ -225,7 +440,7 @@ public class VIslam2tagActivity extends AppCompatActivity implements GLSurfaceVi
     // Register the configure WiFi scan receiver
     IntentFilter intentFilter = new IntentFilter();
     intentFilter.addAction(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION);
-    getApplicationContext().registerReceiver(wifiScanReceiver, intentFilter);
+    getApplicationContext().registerReceiver(wifiScanReceiver, intentFilter, null, wifiHandler);
 
     // initialize the TaskRunner that is used for asynchronous handling of file writing etc.
     taskRunner = new TaskRunner();
@@ -248,7 +463,8 @@ public class VIslam2tagActivity extends AppCompatActivity implements GLSurfaceVi
     // Clear screen to notify driver it should not load any pixels from previous frame.
     GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
 
-    if (session == null) {
+    // the session is updated by the tracking thread in the screen dimmed mode
+    if (session == null || screenDimmedRecording) {
       return;
     }
 
@@ -259,65 +475,93 @@ public class VIslam2tagActivity extends AppCompatActivity implements GLSurfaceVi
       cpuImageDisplayRotationHelper.updateSessionIfNeeded(session);
 
       try {
+        applyPendingConfig();
         session.setCameraTextureName(cpuImageRenderer.getTextureId());
         final Frame frame = session.update();
-        final Camera camera = frame.getCamera();
-
-        // check for augmented images
-        checkForDetectedImages(frame);
+        processFrame(frame);
 
-        long timestamp = SystemClock.elapsedRealtimeNanos();
-
-        // log all poses of the currently tracked augmented images for the current camera frame
-        for (AugmentedImage img : trackedImages) {
-          Pose aP = img.getCenterPose();
-          String s = String.format("%d; %d; %f; %f; %f; %f; %f; %f; %f\n",
-                  img.getIndex(), timestamp,
-                  aP.tx(), aP.ty(), aP.tz(),
-                  aP.qx(), aP.qy(), aP.qz(), aP.qw());
-          initPoseLines.add(s);
-        }
-
-        if (writeFiles) {
+        // Keep the screen unlocked while tracking, but allow it to lock when tracking stops.
+        trackingStateHelper.updateKeepScreenOnFlag(frame.getCamera().getTrackingState());
 
-          // obtain the current camera pose and add to the write stack
-          Pose pose = frame.getCamera().getPose();
+        renderFrameTimeHelper.nextFrame();
+        renderPreview(frame);
+      } catch (Exception t) {
+        // Avoid crashing the application due to unhandled exceptions.
+        Log.e(TAG, "Exception on the OpenGL thread", t);
+      }
+    }
+  }
 
-          String s = String.format("%d; %f; %f; %f; %f; %f; %f; %f\n",
-                  timestamp,
-                  pose.tx(), pose.ty(), pose.tz(),
-                  pose.qx(), pose.qy(), pose.qz(), pose.qw());
+  /**
+   * Captures the camera pose and the landmark poses of a frame, called either on the GL thread
+   * or on the tracking thread (screen dimmed recording).
+   */
+  private void processFrame(Frame frame) {
+    final Camera camera = frame.getCamera();
+
+    // check for augmented images
+    checkForDetectedImages(frame);
+
+    long timestamp = Timebase.now();
+    // the frame's own timestamp (camera clock) is logged in addition
+    long frameTimestamp = frame.getTimestamp();
+    cameraClock.add(frameTimestamp, timestamp);
+
+    // log the poses of the tracked augmented images that changed in the current camera frame
+    for (int i = landmarkRegistry.nextActive(0); i >= 0; i = landmarkRegistry.nextActive(i + 1)) {
+      if (!landmarkObserver.observe(landmarkRegistry, i, updatedImages.get(i))) {
+        continue;
+      }
+      AugmentedImage img = landmarkRegistry.getImage(i);
+      appendInitPoseLine(i, timestamp, img.getCenterPose(), img.getTrackingMethod(), frameTimestamp);
+    }
 
-          poseLines.add(s);
+    // the camera pose is queried once per frame (each call creates a new Pose)
+    Pose cameraPose = camera.getPose();
+    TrackingState trackingState = camera.getTrackingState();
 
-          // write logged poses as batches of size 10 via async tasks to avoid lagging
-          if (poseLines.size() > 10) {
-            List<String> lines = (ArrayList<String>) ((ArrayList<String>) poseLines).clone();
-            poseLines.clear();
-            taskRunner.executeAsync(new WriteSensorReadings(lines, poseWriter), (idx) -> { });
-          }
+    if (writeFiles) {
 
-          // write logged augmented image poses
-          if (initPoseLines.size() > 10) {
-            List<String> lines = (ArrayList<String>) ((ArrayList<String>) initPoseLines).clone();
-            initPoseLines.clear();
-            taskRunner.executeAsync(new WriteSensorReadings(lines, initPoseWriter), (idx) -> { });
-          }
-        }
+      // add the current camera pose (and its tracking state) to the pose log
+      // the pose log writes its batches via the writer lane to avoid lagging
+      poseLog.append(timestamp, frameTimestamp, cameraPose, trackingState, camera.getTrackingFailureReason());
 
-        // Keep the screen unlocked while tracking, but allow it to lock when tracking stops.
-        trackingStateHelper.updateKeepScreenOnFlag(camera.getTrackingState());
+      // write logged augmented image poses
+      if (initPoseLineCount > INIT_POSE_BATCH_LINES) {
+        initPoseLane.submit(new WriteLines(Collections.singletonList(initPoseText.toString())));
+        initPoseText.setLength(0);
+        initPoseLineCount = 0;
+      }
+    }
 
-        renderFrameTimeHelper.nextFrame();
-        renderProcessedImageCpuDirectAccess(frame);
+    // The intrinsics only change with the camera config, the text view itself is updated
+    // by the HUD updater
+    if (cameraIntrinsicsText == null) {
+      cameraIntrinsicsText = getCameraIntrinsicsText(frame);
+    }
+    cameraPose.getTranslation(hudCameraPosition, 0);
+    if (trackingState == TrackingState.TRACKING) {
+      poseHistory.add(timestamp, cameraPose.tx(), cameraPose.ty(), cameraPose.tz(),
+              cameraPose.qx(), cameraPose.qy(), cameraPose.qz(), cameraPose.qw());
+    }
+  }
 
-        // Update the camera intrinsics' text.
-        runOnUiThread(() -> cameraIntrinsicsTextView.setText(getCameraIntrinsicsText(frame)));
-      } catch (Exception t) {
-        // Avoid crashing the application due to unhandled exceptions.
-        Log.e(TAG, "Exception on the OpenGL thread", t);
-      }
+  /**
+   * Appends a line of initPoses.csv: index; timestamp; tx; ty; tz; qx; qy; qz; qw; tracking
+   * method; frame timestamp
+   */
+  private void appendInitPoseLine(int index, long timestamp, Pose pose, AugmentedImage.TrackingMethod method,
+                                  long frameTimestamp) {
+    StringBuilder text = initPoseText;
+    text.append(index).append("; ").append(timestamp);
+    pose.getTranslation(landmarkPoseValues, 0);
+    pose.getRotationQuaternion(landmarkPoseValues, 3);
+    for (float value : landmarkPoseValues) {
+      text.append("; ");
+      NumberAppender.appendFixed(text, value, POSE_DECIMALS, decimalSeparator);
     }
+    text.append("; ").append(method.name()).append("; ").append(frameTimestamp).append('\n');
+    initPoseLineCount ++;
   }
 
   //
@@ -328,6 +572,22 @@ public class VIslam2tagActivity extends AppCompatActivity implements GLSurfaceVi
     // setup the sensor recording of
     // - WiFi (via android OS)
     // - IMU (via android OS)
+    recordingStartNanos = Timebase.now();
+    clockCalibration = new ArrayList<>();
+    clockCalibration.add(Timebase.calibrationHeader());
+    clockCalibration.addAll(Timebase.sampleClocks("start"));
+
+    // truncate files of previous sessions that were not closed properly (app was killed)
+    // to their last complete record
+    try {
+      int recovered = MappedRecordFile.recover(getExternalFilesDir(null));
+      if (recovered > 0) {
+        Log.i(TAG, "Recovered " + recovered + " recording files of previous sessions");
+      }
+    } catch (IOException e) {
+      // does not affect the recording of this session
+      Log.e(TAG, "Could not recover the recording files of previous sessions", e);
+    }
 
     try {
       // Obtain current date for setting filenames
@@ -343,42 +603,238 @@ public class VIslam2tagActivity extends AppCompatActivity implements GLSurfaceVi
         dir.mkdirs();
       }
 
-      // initialize file writers and set instance variables
-      writer = new FileWriter(new File(dirName + "/", "sensors.csv"));
-      wifiWriter = new FileWriter(new File(dirName + "/", "wifi.csv"));
-      poseWriter = new FileWriter(new File(dirName + "/", "poses.csv"));
-      initPoseWriter = new FileWriter(new File(dirName + "/", "initPoses.csv"));
-      refMarkerWriter = new FileWriter(new File(dirName + "/" + "refMarker.csv"));
+      // initialize file writers (lanes) and set instance variables
+      writerPipeline = new WriterPipeline(dir);
+
+      sensorSink = writerPipeline.openSink("sensors.bin");
+      SensorRecordWriter sensorWriter = new SensorRecordWriter(sensorSink);
+      sensorRing = new SensorEventRing(SENSOR_BUFFER_CAPACITY, SENSOR_OVERFLOW_POLICY);
+      sensorDrainThread = new SensorDrainThread(sensorRing, sensorWriter);
+
+      if (mergedOutput) {
+        mergedSink = writerPipeline.openSink("merged.csv");
+        streamMerger = new StreamMerger(mergedSink, MERGE_MAX_DELAY_NANOS);
+        writerPipeline.setMerger(streamMerger, MERGE_WINDOW);
+        sensorDrainThread.setMerger(streamMerger,
+                streamMerger.addStream(SessionStream.SENSORS.name(), MERGE_SENSOR_WINDOW));
+      }
+      sensorDrainThread.start();
+
+      sensorLatency = new SensorBatchLatency[SensorRecordFormat.typeCount()];
+      for (int i = 0; i < sensorLatency.length; i++) {
+        sensorLatency[i] = new SensorBatchLatency(SENSOR_BATCH_GAP_NANOS);
+      }
+
+      wifiWriter = wifiBinary ? new WifiRecordWriter() : null;
+      wifiLane = writerPipeline.openLane(wifiBinary ? "wifi.bin" : "wifi.csv");
+      poseLane = writerPipeline.openLane("poses.csv");
+      poseLog = new PoseLog(poseLane, POSE_FLUSH_POLICY);
+      initPoseLane = writerPipeline.openLane("initPoses.csv");
+      refMarkerLane = writerPipeline.openLane("refMarker.csv");
+      fingerprintLane = writerPipeline.openLane("fingerprints.csv");
+      scanLane = writerPipeline.openLane("scans.csv");
+      WifiScanEncoder encoder = new WifiScanEncoder(wifiLane, wifiWriter, fingerprintLane, poseHistory);
+      if (streamMerger != null && wifiBinary) {
+        // wifi.bin is not a merged stream, the encoder offers the wifi.csv lines instead
+        encoder.setMerger(streamMerger, streamMerger.addStream(SessionStream.WIFI.name(), MERGE_WINDOW));
+      }
+      wifiScanEncoder = encoder;
 
     } catch (IOException e) {
-      e.printStackTrace();
+      Log.e(TAG, "Could not open the recording files", e);
     }
 
-    // request the first WiFi scan (will be repeatedly request once a scan is received)
-    wifiManager.startScan();
+    // request the first WiFi scan (further scans are requested by the scheduler)
+    wifiHandler.post(scanScheduler::start);
+
+    sensorThread = new HandlerThread("SensorThread", Process.THREAD_PRIORITY_URGENT_DISPLAY);
+    sensorThread.start();
+    sensorHandler = new Handler(sensorThread.getLooper());
 
     // setup this activity for listing on all required sensor (IMU) events
-    manager.registerListener(VIslam2tagActivity.this, manager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER), SensorManager.SENSOR_DELAY_GAME);
-    manager.registerListener(VIslam2tagActivity.this, manager.getDefaultSensor(Sensor.TYPE_GYROSCOPE), SensorManager.SENSOR_DELAY_GAME);
-    manager.registerListener(VIslam2tagActivity.this, manager.getDefaultSensor(Sensor.TYPE_GYROSCOPE_UNCALIBRATED), SensorManager.SENSOR_DELAY_GAME);
-    manager.registerListener(VIslam2tagActivity.this, manager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD), SensorManager.SENSOR_DELAY_GAME);
-    manager.registerListener(VIslam2tagActivity.this, manager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD_UNCALIBRATED), SensorManager.SENSOR_DELAY_GAME);
-    manager.registerListener(VIslam2tagActivity.this, manager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR), SensorManager.SENSOR_DELAY_GAME);
-    manager.registerListener(VIslam2tagActivity.this, manager.getDefaultSensor(Sensor.TYPE_GAME_ROTATION_VECTOR), SensorManager.SENSOR_DELAY_GAME);
+    // sampling period and hardware FIFO batching are configured via the sensor profile
+    // events are delivered on the sensor thread
+    for (SensorProfile.Entry entry : sensorProfile.getEntries()) {
+      if (!entry.enabled) {
+        continue;
+      }
+      Sensor sensor = manager.getDefaultSensor(entry.sensorType);
+      if (sensor == null) {
+        Log.w(TAG, "Sensor not available: " + entry.label);
+        continue;
+      }
+      manager.registerListener(VIslam2tagActivity.this, sensor, entry.samplingPeriodUs, entry.maxReportLatencyUs, sensorHandler);
+      Log.i(TAG, "Registered " + entry + " (FIFO size: " + sensor.getFifoMaxEventCount() + ")");
+    }
 
   }
 
   private void stopRecording() {
     manager.flush(VIslam2tagActivity.this);
     manager.unregisterListener(VIslam2tagActivity.this);
+    // no further callbacks after unregistering, pending ones are still delivered
+    sensorThread.quitSafely();
+    WifiScanEncoder encoder = wifiScanEncoder;
+    try {
+      stopWifiScans();
+      sensorThread.join();
+
+      // drains the remaining IMU events and closes the sensor file
+      sensorDrainThread.shutdown();
+
+      poseLog.flush();
+      writeSensorLatency();
+      writeLandmarkStats();
+      writeClockCalibration();
+
+      // writes the remaining batches of all other files and closes them
+      writerPipeline.close();
+
+      LatencyStats scanLatency = scanScheduler.getLatency();
+      Log.i(TAG, "WLAN scans: " + scanScheduler.getFreshCount() + " fresh, " + scanScheduler.getCachedCount()
+              + " cached, " + scanScheduler.getFailedCount() + " failed, " + scanScheduler.getRejectedCount()
+              + " rejected, " + scanScheduler.getTimeoutCount() + " timed out, latency mean "
+              + scanLatency.getMeanMicros() / 1000 + " ms, max " + scanLatency.getMaxMicros() / 1000 + " ms, "
+              + (encoder != null ? encoder.getStaleTotal() : 0) + " stale access points dropped");
+      if (wifiWriter != null) {
+        Log.i(TAG, "Wrote " + wifiWriter.getScanCount() + " WLAN scans with " + wifiWriter.getAccessPointCount()
+                + " access point records, " + wifiWriter.getDictionarySize() + " BSSIDs, "
+                + wifiWriter.getSkippedCount() + " access points skipped");
+      }
+      if (streamMerger != null) {
+        finishMergedOutput();
+      }
+      logWriterErrors();
+    } catch (InterruptedException e) {
+      Log.e(TAG, "Interrupted while stopping the recording", e);
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void logWriterErrors() {
+    if (sensorDrainThread.getError() != null) {
+      Log.e(TAG, "Recording of the IMU events failed", sensorDrainThread.getError());
+    }
+    for (WriterLane lane : writerPipeline.getLanes()) {
+      if (lane.getLastError() != null) {
+        Log.e(TAG, lane.getName() + ": " + lane.getFailedCount() + " batches failed", lane.getLastError());
+      }
+    }
+  }
+
+  private void trimRecording() {
+    if (poseLog == null) {
+      return;
+    }
+    poseLog.flush();
+    sensorDrainThread.requestTrim();
+    int failed = writerPipeline.trim();
+    if (failed > 0) {
+      Log.w(TAG, "Could not trim " + failed + " recording files");
+    }
+    if (streamMerger != null) {
+      try {
+        streamMerger.trim();
+      } catch (IOException e) {
+        Log.e(TAG, "Could not trim the merged output", e);
+      }
+    }
+  }
+
+  private void preallocateRecording() {
+    if (poseLog == null) {
+      return;
+    }
+    sensorDrainThread.requestPreallocate();
+    int failed = writerPipeline.preallocate();
+    if (failed > 0) {
+      Log.w(TAG, "Could not preallocate " + failed + " recording files");
+    }
+    if (streamMerger != null) {
+      try {
+        streamMerger.preallocate();
+      } catch (IOException e) {
+        Log.e(TAG, "Could not preallocate the merged output", e);
+      }
+    }
+  }
+
+  private void stopWifiScans() throws InterruptedException {
+    // the scheduler and the receiver are only used on the WLAN thread, stopping them there makes
+    // sure that a scan which is currently encoded is submitted before the lanes are closed
+    CountDownLatch stopped = new CountDownLatch(1);
+    wifiHandler.post(() -> {
+      scanScheduler.stop();
+      getApplicationContext().unregisterReceiver(wifiScanReceiver);
+      if (wifiScanEncoder != null) {
+        wifiScanEncoder.closeMergerStream();
+      }
+      wifiScanEncoder = null;
+      stopped.countDown();
+    });
+    stopped.await();
+  }
+
+  private void finishMergedOutput() {
+    try {
+      streamMerger.finish();
+      mergedSink.close();
+    } catch (IOException e) {
+      Log.e(TAG, "Could not finish the merged output", e);
+    }
+    Log.i(TAG, "Merged " + streamMerger.getWrittenCount() + " records, "
+            + streamMerger.getLateCount() + " out of order");
+    for (String line : streamMerger.getStatsLines()) {
+      Log.i(TAG, "Merge " + line.trim());
+    }
+    streamMerger = null;
+  }
+
+  private void writeSensorLatency() {
+    // summary of the IMU callback latency per sensor (in microseconds, per delivered batch)
+    // the sensor thread has been joined, hence the last batch of each sensor is complete
+    List<String> lines = new ArrayList<>();
+    lines.add("sensor; events; batches; mean; min; p50; p99; max; negative\n");
+    for (int i = 0; i < sensorLatency.length; i++) {
+      sensorLatency[i].finish();
+      LatencyStats stats = sensorLatency[i].getStats();
+      if (stats.getCount() == 0) {
+        continue;
+      }
+      String line = String.format("%s; %d; %d; %f; %f; %d; %d; %f; %d\n", SensorRecordFormat.label(i),
+              sensorLatency[i].getEventCount(), stats.getCount(), stats.getMeanMicros(), stats.getMinMicros(),
+              stats.getPercentileMicros(0.5), stats.getPercentileMicros(0.99), stats.getMaxMicros(),
+              stats.getNegativeCount());
+      lines.add(line);
+      Log.i(TAG, "IMU callback latency " + line.trim());
+    }
+
+    try {
+      writerPipeline.openLane("sensorLatency.csv").submit(new WriteLines(lines));
+    } catch (IOException e) {
+      Log.e(TAG, "Could not write sensorLatency.csv", e);
+    }
+  }
+
+  private void writeClockCalibration() {
+    clockCalibration.addAll(Timebase.sampleClocks("stop"));
+    clockCalibration.add(Timebase.estimatedOffsetLine(cameraClock, "stop"));
+    clockCalibration.add(Timebase.estimatedOffsetLine(sensorClock, "stop"));
+    try {
+      writerPipeline.openLane(Timebase.CALIBRATION_FILE).submit(new WriteLines(clockCalibration));
+    } catch (IOException e) {
+      Log.e(TAG, "Could not write " + Timebase.CALIBRATION_FILE, e);
+    }
+  }
+
+  private void writeLandmarkStats() {
+    Log.i(TAG, "Logged " + landmarkObserver.getLoggedCount() + " of "
+            + landmarkObserver.getObservedCount() + " landmark observations");
     try {
-      writer.close();
-      wifiWriter.close();
-      poseWriter.close();
-      initPoseWriter.close();
-      refMarkerWriter.close();
+      writerPipeline.openLane("landmarks.csv").submit(
+              new WriteLines(landmarkObserver.getStatsLines(landmarkRegistry)));
     } catch (IOException e) {
-      e.printStackTrace();
+      Log.e(TAG, "Could not write landmarks.csv", e);
     }
   }
 
@@ -387,29 +843,37 @@ public class VIslam2tagActivity extends AppCompatActivity implements GLSurfaceVi
   //
 
   private void scanSuccess() {
-    // WiFi scan was successful
-    // request the most recent scan and write to file as async task to avoid blocking main thread
+    // WiFi scan was successful (called on the WLAN thread)
+    // request the most recent scan and encode it in a single pass, the encoded scan is written
+    // by the writer lanes
+    WifiScanEncoder encoder = wifiScanEncoder;
+    if (encoder == null) {
+      // the recording did not start yet
+      return;
+    }
     List<ScanResult> results = wifiManager.getScanResults();
-    taskRunner.executeAsync(new WriteWLAN(results, wifiWriter), (idx) -> {});
+    long scanTime = Timebase.now();
 
-    // update RSS counter for debug purposes
-    rssCounter ++;
-    rssTextView.setText(String.valueOf(rssCounter));
+    // only access points that were measured since the previous scan are written, each one is
+    // labeled with the camera pose as soon as it arrives (no offline matching required)
+    encoder.encode(rssCounter, scanTime, results);
 
-    // request new WiFi scan
-    if (writeFiles) {
-      wifiManager.startScan();
-    }
+    // results are cached (e.g. while scans are throttled) if no access point was measured after
+    // the newest one of the previous scan
+    ScanScheduler.ScanKind kind = scanScheduler.onScanResults(encoder.getNewestTimestamp());
+    long latency = scanScheduler.getLastLatencyNanos();
+    scanLane.submit(new WriteLines(Collections.singletonList(String.format("%d; %d; %s; %d; %d; %d; %d\n",
+            rssCounter, scanTime, kind, latency < 0 ? -1 : latency / 1000, results.size(),
+            encoder.getFreshCount(), encoder.getStaleCount()))));
 
+    // RSS counter for debug purposes, shown by the HUD updater
+    rssCounter ++;
   }
 
   private void scanFailure() {
     // handle failure: new scan did NOT succeed
-    // only request new scan but do not use old data here!
-    if (writeFiles) {
-      wifiManager.startScan();
-    }
-
+    // do not use old data here, the scheduler requests the next scan after a back off
+    scanScheduler.onScanFailed();
   }
 
 
@@ -420,39 +884,18 @@ public class VIslam2tagActivity extends AppCompatActivity implements GLSurfaceVi
   @Override
   public void onSensorChanged(SensorEvent evt) {
 
-    // store sensor events in local data structure
+    // store sensor events in the ring buffer (allocation free)
+    // they are written to disk by the sensor drain thread
     if(writeFiles) {
-      switch(evt.sensor.getType()) {
-        case Sensor.TYPE_ACCELEROMETER:
-          sensorLines.add(String.format("%d; ACC; %f; %f; %f; %f; %f; %f\n", evt.timestamp, evt.values[0], evt.values[1], evt.values[2], 0.f, 0.f, 0.f));
-          // writer.write(String.format("%d; ACC; %f; %f; %f; %f; %f; %f\n", evt.timestamp, evt.values[0], evt.values[1], evt.values[2], 0.f, 0.f, 0.f));
-          break;
-        case Sensor.TYPE_GYROSCOPE_UNCALIBRATED:
-          sensorLines.add(String.format("%d; GYRO_UN; %f; %f; %f; %f; %f; %f\n", evt.timestamp, evt.values[0], evt.values[1], evt.values[2], evt.values[3], evt.values[4], evt.values[5]));
-          break;
-        case Sensor.TYPE_GYROSCOPE:
-          sensorLines.add(String.format("%d; GYRO; %f; %f; %f; %f; %f; %f\n", evt.timestamp, evt.values[0], evt.values[1], evt.values[2], 0.f, 0.f, 0.f));
-          break;
-        case Sensor.TYPE_MAGNETIC_FIELD:
-          sensorLines.add(String.format("%d; MAG; %f; %f; %f; %f; %f; %f\n", evt.timestamp, evt.values[0], evt.values[1], evt.values[2], 0.f, 0.f, 0.f));
-          break;
-        case Sensor.TYPE_MAGNETIC_FIELD_UNCALIBRATED:
-          sensorLines.add(String.format("%d; MAG_UN; %f; %f; %f; %f; %f; %f\n", evt.timestamp, evt.values[0], evt.values[1], evt.values[2], 0.f, 0.f, 0.f));
-          break;
-        case Sensor.TYPE_ROTATION_VECTOR:
-          sensorLines.add(String.format("%d; ROT; %f; %f; %f; %f; %f; %f\n", evt.timestamp, evt.values[0], evt.values[1], evt.values[2], evt.values[3], 0.f, 0.f));
-          break;
-        case Sensor.TYPE_GAME_ROTATION_VECTOR:
-          sensorLines.add(String.format("%d; GAME_ROT; %f; %f; %f; %f; %f; %f\n", evt.timestamp, evt.values[0], evt.values[1], evt.values[2], evt.values[3], 0.f, 0.f));
-          break;
-      }
-
-      // write locally accumulated sensor reading to disk as batch of size 100
-      // use async task to avoid blocking main thread
-      if (sensorLines.size() > 100) {
-        List<String> lines = (ArrayList<String>) ((ArrayList<String>) sensorLines).clone();
-        sensorLines.clear();
-        taskRunner.executeAsync(new WriteSensorReadings(lines, writer), (idx) -> { });
+      int type = evt.sensor.getType();
+      sensorRing.offer(evt.timestamp, type, evt.values);
+
+      // event timestamps are based on elapsedRealtimeNanos (common time base)
+      long now = Timebase.now();
+      sensorClock.add(evt.timestamp, now);
+      int index = SensorRecordFormat.indexOf(type);
+      if (index >= 0) {
+        sensorLatency[index].add(evt.timestamp, now);
       }
     }
   }
@@ -464,14 +907,52 @@ public class VIslam2tagActivity extends AppCompatActivity implements GLSurfaceVi
 
   @Override
   public void onFlushCompleted(Sensor sensor) {
-
+    // events that were batched in the sensor FIFO are delivered now, write them to disk
+    if (sensorDrainThread != null) {
+      sensorDrainThread.requestFlush();
+    }
   }
 
   //
   //  Augmented image hanlding (registering + check for updates)
   //
 
-  private AugmentedImageDatabase loadAugDatabase() {
+  private static boolean getOption(Intent intent, String extra, boolean defaultValue) {
+    return intent == null ? defaultValue : intent.getBooleanExtra(extra, defaultValue);
+  }
+
+  private void updatePreviewButtons() {
+    previewModeButton.setText(getString(R.string.preview_mode, getString(previewMode.getLabel())));
+    edgeDetectionButton.setText(getString(R.string.edge_detection,
+            getString(gpuEdgeDetection ? R.string.edge_detection_gpu : R.string.edge_detection_cpu)));
+  }
+
+  private File resolveVenue(Intent intent) {
+    String venue = intent == null ? null : intent.getStringExtra(EXTRA_VENUE);
+    if (venue == null) {
+      return null;
+    }
+    File dir = new File(venue);
+    if (!dir.isAbsolute()) {
+      dir = new File(getExternalFilesDir(VENUE_FOLDER), venue);
+    }
+    if (!new File(dir, LandmarkImageList.FILE_NAME).exists()) {
+      Log.w(TAG, "No landmark venue in " + dir + ", using the asset database");
+      return null;
+    }
+    return dir;
+  }
+
+  private AugmentedImageDatabase loadAugDatabase(Session session) {
+    if (venueDir != null) {
+      try {
+        return new LandmarkDatabaseBuilder(new File(getFilesDir(), LANDMARK_CACHE_FOLDER)).load(session, venueDir);
+      } catch (Exception e) {
+        // e.g. missing images or images with too few features
+        Log.e(TAG, "Could not load the landmarks of " + venueDir + ", using the asset database", e);
+      }
+    }
+
     // load the preconfigured augmented image database
     // since this is much faster than generating it on the fly
     // database has to be created "arcoreimg" tool
@@ -487,28 +968,82 @@ public class VIslam2tagActivity extends AppCompatActivity implements GLSurfaceVi
 
   }
 
+  private void loadLandmarkDatabaseAsync() {
+    if (landmarkDatabaseSession == session) {
+      // already loaded (or loading) for the current session
+      return;
+    }
+    final Session target = session;
+    landmarkDatabaseSession = target;
+    landmarkDatabase = null;
+    landmarkDatabaseLoadMillis = -1;
+
+    // deserializing a venue sized database takes seconds, the session is already resumed and
+    // tracks without landmarks in the meantime
+    final long start = SystemClock.elapsedRealtime();
+    taskRunner.executeAsync(() -> loadAugDatabase(target), db -> {
+      if (session != target) {
+        // the session was closed in the meantime
+        return;
+      }
+      landmarkDatabaseLoadMillis = SystemClock.elapsedRealtime() - start;
+      if (db == null) {
+        Log.e(TAG, "Could not load the augmented image database");
+        return;
+      }
+      Log.i(TAG, "Loaded " + db.getNumImages() + " landmark images in " + landmarkDatabaseLoadMillis + " ms");
+      landmarkDatabase = db;
+      config.setAugmentedImageDatabase(db);
+      // Session.update must not run concurrently, the updating thread holds the session lock for
+      // most of the time, hence the configuration is applied by that thread
+      pendingConfig.set(config);
+    });
+  }
+
+  private void applyPendingConfig() {
+    // called with the session lock held, before the session is updated
+    Config pending = pendingConfig.getAndSet(null);
+    if (pending != null) {
+      session.configure(pending);
+    }
+  }
+
+  private int countLandmarkImages() {
+    // size of the landmark registry, i.e. number of images of the augmented image database
+    if (venueDir != null) {
+      try {
+        return LandmarkImageList.read(venueDir).getEntries().size();
+      } catch (IOException e) {
+        Log.e(TAG, "Could not read the image list of " + venueDir, e);
+      }
+    }
+    try (InputStream inputStream = getAssets().open(IMAGE_LIST_ASSET)) {
+      return LandmarkRegistry.countImages(inputStream);
+    } catch (IOException e) {
+      Log.e(TAG, "Could not read " + IMAGE_LIST_ASSET, e);
+      return 0;
+    }
+  }
+
   private void checkForDetectedImages(Frame frame) {
     Collection<AugmentedImage> updatedAugmentedImages =
             frame.getUpdatedTrackables(AugmentedImage.class);
+    long timestamp = Timebase.now();
 
     // check whether Augmented image changed to state tracking and is not currently tracked
     // if this is the case: notify the user that the img was seen for the first time
+    updatedImages.clear();
     for (AugmentedImage img : updatedAugmentedImages) {
+      updatedImages.set(img.getIndex());
       if (img.getTrackingState() == TrackingState.TRACKING) {
 
-        if (!markerIdx.contains(img.getIndex())) {
-          markerIdx.add(img.getIndex());
-
+        if (landmarkRegistry.update(img, timestamp)) {
           String notification = "IMG:" + img.getIndex() + " detected";
           runOnUiThread(() -> {
             Toast.makeText(getApplicationContext(), notification, Toast.LENGTH_SHORT).show();
           });
         }
 
-        if (!trackedImages.contains(img)) {
-          trackedImages.add(img);
-        }
-
       }
     }
   }
@@ -522,12 +1057,9 @@ public class VIslam2tagActivity extends AppCompatActivity implements GLSurfaceVi
     // This can be utilized for evaluation of the accuracy by clicking the button once
     // the user is located at a certain known(!) reference location
     // see the paper for details on how it is used
-    long timestamp = SystemClock.elapsedRealtimeNanos();
-    try {
-      refMarkerWriter.write(String.format("%d; %d\n", markerCounter, timestamp));
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
+    long timestamp = Timebase.now();
+    refMarkerLane.submit(new WriteLines(
+            Collections.singletonList(String.format("%d; %d\n", markerCounter, timestamp))));
     markerCounter ++;
 
   }
@@ -544,11 +1076,14 @@ public class VIslam2tagActivity extends AppCompatActivity implements GLSurfaceVi
     surfaceView.setEGLContextClientVersion(2);
     surfaceView.setEGLConfigChooser(8, 8, 8, 8, 16, 0); // Alpha used for plane blending.
     surfaceView.setRenderer(this);
-    surfaceView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
+    // nothing is rendered in the screen dimmed mode (only on surface changes)
+    surfaceView.setRenderMode(screenDimmedRecording
+            ? GLSurfaceView.RENDERMODE_WHEN_DIRTY : GLSurfaceView.RENDERMODE_CONTINUOUSLY);
     surfaceView.setWillNotDraw(false);
 
     getLifecycle().addObserver(renderFrameTimeHelper);
     getLifecycle().addObserver(cpuImageFrameTimeHelper);
+    getLifecycle().addObserver(gpuEdgeFrameTimeHelper);
 
     installRequested = false;
   }
@@ -574,6 +1109,8 @@ public class VIslam2tagActivity extends AppCompatActivity implements GLSurfaceVi
     } catch (IOException e) {
       Log.e(TAG, "Failed to read an asset file", e);
     }
+
+    cpuImageRenderer.setDoubleBufferedUpload(doubleBufferedOverlayUpload);
   }
 
   @Override
@@ -582,6 +1119,48 @@ public class VIslam2tagActivity extends AppCompatActivity implements GLSurfaceVi
     GLES20.glViewport(0, 0, width, height);
   }
 
+  private void renderPreview(Frame frame) {
+    // the preview settings may be changed on the UI thread at any time
+    PreviewMode mode = previewMode;
+    // the camera image is shown left of the splitter, the CPU image right of it
+    cpuImageRenderer.setSplitterPosition(mode == PreviewMode.OFF ? 1.0f : 0.0f);
+
+    if (mode != PreviewMode.OFF && gpuEdgeDetection) {
+      // no CPU image is acquired, hence cheap enough for every frame in both overlay modes
+      renderProcessedImageGpu(frame);
+      return;
+    }
+
+    switch (mode) {
+      case OFF:
+        cpuImageRenderer.drawWithoutCpuImage(frame);
+        break;
+      case LOW_RATE:
+        long now = SystemClock.elapsedRealtimeNanos();
+        if (now - lastPreviewUpdateNanos >= 1_000_000_000L / PREVIEW_LOW_RATE_FPS) {
+          lastPreviewUpdateNanos = now;
+          renderProcessedImageCpuDirectAccess(frame);
+        } else {
+          // keep the last edge overlay
+          cpuImageRenderer.drawWithoutCpuImage(frame);
+        }
+        break;
+      case FULL:
+        renderProcessedImageCpuDirectAccess(frame);
+        break;
+    }
+  }
+
+  private void renderProcessedImageGpu(Frame frame) {
+    if (cameraTextureSize == null) {
+      cameraTextureSize = frame.getCamera().getTextureIntrinsics().getImageDimensions();
+    }
+    cpuImageRenderer.drawWithGpuEdgeDetection(frame, cameraTextureSize[0], cameraTextureSize[1]);
+
+    // Measure frame time since last execution of drawWithGpuEdgeDetection().
+    gpuEdgeFrameTimeHelper.nextFrame();
+  }
+
   /* Demonstrates how to access a CPU image directly from ARCore. */
   private void renderProcessedImageCpuDirectAccess(Frame frame) {
     try (Image image = frame.acquireCameraImage()) {
@@ -637,6 +1216,8 @@ public class VIslam2tagActivity extends AppCompatActivity implements GLSurfaceVi
                       Integer.compare(p1.getImageSize().getHeight(), p2.getImageSize().getHeight()));
       CameraConfig cpuHighResolutionCameraConfig = cameraConfigsByResolution.get(2);
       session.setCameraConfig(cpuHighResolutionCameraConfig);
+      cameraTextureSize = null;
+      cameraIntrinsicsText = null;
     }
   }
 
@@ -668,12 +1249,109 @@ public class VIslam2tagActivity extends AppCompatActivity implements GLSurfaceVi
             imageSize[0],
             imageSize[1],
             fovX,
-            fovY,
-            renderFrameTimeHelper.getSmoothedFrameTime(),
-            renderFrameTimeHelper.getSmoothedFrameRate(),
-            cpuImageFrameTimeHelper.getSmoothedFrameTime(),
-            cpuImageFrameTimeHelper.getSmoothedFrameRate(),
-            camera.getPose().toString());
+            fovY);
+  }
+
+  private void updateHud() {
+    long now = SystemClock.elapsedRealtimeNanos();
+    double seconds = (now - hudLastUpdateNanos) / 1e9;
+    hudLastUpdateNanos = now;
+
+    hudText.clear();
+    String intrinsics = cameraIntrinsicsText;
+    if (intrinsics != null) {
+      hudText.append(intrinsics);
+    }
+
+    hudText.newLine().append("\tRender frame time: ").append(renderFrameTimeHelper.getSmoothedFrameTime(), 1)
+            .append(" ms (").append(renderFrameTimeHelper.getSmoothedFrameRate(), 0).append("fps)");
+    hudText.newLine().append("\tCPU image frame time: ").append(cpuImageFrameTimeHelper.getSmoothedFrameTime(), 1)
+            .append(" ms (").append(cpuImageFrameTimeHelper.getSmoothedFrameRate(), 0).append("fps)");
+    hudText.newLine().append("\tCPU image upload time: ").append(cpuImageRenderer.getSmoothedUploadTimeMs(), 2)
+            .append(" ms");
+    hudText.newLine().append("\tGPU edge frame time: ").append(gpuEdgeFrameTimeHelper.getSmoothedFrameTime(), 1)
+            .append(" ms (").append(gpuEdgeFrameTimeHelper.getSmoothedFrameRate(), 0).append("fps)");
+    hudText.newLine().append("\tEdge detection: ")
+            .append(previewMode == PreviewMode.OFF ? "off" : (gpuEdgeDetection ? "GPU" : "CPU"));
+    hudText.newLine().append("\tLandmark database: ");
+    if (landmarkDatabaseLoadMillis < 0) {
+      hudText.append("loading");
+    } else if (landmarkDatabase == null) {
+      hudText.append("failed");
+    } else {
+      hudText.append(landmarkDatabase.getNumImages()).append(" images, loaded in ")
+              .append(landmarkDatabaseLoadMillis).append(" ms");
+    }
+    hudText.newLine().append("\tPosition: ").append(hudCameraPosition[0], 2).append(", ")
+            .append(hudCameraPosition[1], 2).append(", ").append(hudCameraPosition[2], 2);
+
+    if (sensorLatency != null) {
+      // IMU events per second and sensor since the last update
+      if (hudSensorCounts == null) {
+        hudSensorCounts = new long[sensorLatency.length];
+      }
+      hudText.newLine().append("\tIMU events/s:");
+      for (int i = 0; i < sensorLatency.length; i++) {
+        long count = sensorLatency[i].getEventCount();
+        if (count == 0) {
+          continue;
+        }
+        hudText.append(" ").append(SensorRecordFormat.label(i)).append(" ")
+                .append((count - hudSensorCounts[i]) / seconds, 0);
+        hudSensorCounts[i] = count;
+      }
+    }
+
+    if (writerPipeline != null) {
+      double minutes = (now - recordingStartNanos) / 60e9;
+      hudText.newLine().append("\tWLAN scans/min: ").append(minutes > 0 ? rssCounter / minutes : 0, 1)
+              .append(" (fresh ").append(scanScheduler.getFreshRatePerMinute(), 1).append(")");
+      hudText.newLine().append("\tWLAN fresh/cached/failed: ").append(scanScheduler.getFreshCount())
+              .append("/").append(scanScheduler.getCachedCount()).append("/")
+              .append(scanScheduler.getFailedCount() + scanScheduler.getRejectedCount())
+              .append(", back off ").append(scanScheduler.getBackoffNanos() / 1e9, 0).append(" s");
+      WifiScanEncoder encoder = wifiScanEncoder;
+      if (encoder != null) {
+        hudText.newLine().append("\tLabeled fingerprints: ").append(encoder.getLabeledCount())
+                .append(" (unlabeled ").append(encoder.getUnlabeledCount()).append(")");
+      }
+
+      int queueDepth = sensorRing.size();
+      long bytesWritten = sensorSink.getBytesWritten();
+      long dropped = sensorRing.getDroppedCount() + sensorRing.getOverwrittenCount();
+      List<WriterLane> lanes = writerPipeline.getLanes();
+      for (int i = 0; i < lanes.size(); i++) {
+        WriterLane lane = lanes.get(i);
+        queueDepth += lane.getQueueDepth();
+        bytesWritten += lane.getBytesWritten();
+        dropped += lane.getDroppedCount() + lane.getFailedCount();
+      }
+      hudText.newLine().append("\tQueue depth: ").append(queueDepth);
+      hudText.newLine().append("\tWritten: ").appendBytes(bytesWritten);
+      hudText.newLine().append("\tDropped records: ").append(dropped);
+    }
+
+    hudText.showOn(cameraIntrinsicsTextView);
+
+    int scans = rssCounter;
+    if (scans != shownRssCounter) {
+      rssTextView.setText(String.valueOf(scans));
+      shownRssCounter = scans;
+    }
+    cameraIntrinsicsTextView.postDelayed(hudUpdater, HUD_UPDATE_INTERVAL_MS);
+  }
+
+  private void stopTrackingThread() {
+    if (trackingThread == null) {
+      return;
+    }
+    try {
+      trackingThread.shutdown();
+    } catch (InterruptedException e) {
+      Log.e(TAG, "Interrupted while stopping the tracking thread", e);
+      Thread.currentThread().interrupt();
+    }
+    trackingThread = null;
   }
 
   //
@@ -694,6 +1372,8 @@ public class VIslam2tagActivity extends AppCompatActivity implements GLSurfaceVi
 
     stopRecording();
 
+    wifiThread.quitSafely();
+
     super.onDestroy();
   }
 
@@ -722,6 +1402,8 @@ public class VIslam2tagActivity extends AppCompatActivity implements GLSurfaceVi
 
         session = new Session(/* context= */ this);
         config = new Config(session);
+        sessionConfigured = false;
+        pendingConfig.set(null);
       } catch (UnavailableArcoreNotInstalledException
               | UnavailableUserDeclinedInstallationException e) {
         message = "Please install ARCore";
@@ -744,12 +1426,12 @@ public class VIslam2tagActivity extends AppCompatActivity implements GLSurfaceVi
       }
     }
 
-    config.setFocusMode(Config.FocusMode.AUTO);
-
-    AugmentedImageDatabase db = loadAugDatabase();
-    if (db != null) config.setAugmentedImageDatabase(db);
-
-    session.configure(config);
+    // the configuration (including the cached augmented image database) is kept by the session
+    if (!sessionConfigured) {
+      config.setFocusMode(Config.FocusMode.AUTO);
+      session.configure(config);
+      sessionConfigured = true;
+    }
     setCameraResolution();
 
     // Note that order matters - see the note in onPause(), the reverse applies here.
@@ -763,21 +1445,54 @@ public class VIslam2tagActivity extends AppCompatActivity implements GLSurfaceVi
     surfaceView.onResume();
     cpuImageDisplayRotationHelper.onResume();
 
+    // configures the session once the database is loaded (only once per session)
+    loadLandmarkDatabaseAsync();
+
+    if (screenDimmedRecording) {
+      trackingThread = new TrackingThread(session, frameImageInUseLock, this::applyPendingConfig,
+              this::processFrame);
+      trackingThread.start();
+    }
+
+    hudLastUpdateNanos = SystemClock.elapsedRealtimeNanos();
+    cameraIntrinsicsTextView.removeCallbacks(hudUpdater);
+    cameraIntrinsicsTextView.postDelayed(hudUpdater, HUD_UPDATE_INTERVAL_MS);
+
   }
 
   @Override
   public void onPause() {
     super.onPause();
 
+    cameraIntrinsicsTextView.removeCallbacks(hudUpdater);
+
     if (session != null) {
       // Note that the order matters - GLSurfaceView is paused first so that it does not try
       // to query the session. If Session is paused before GLSurfaceView, GLSurfaceView may
       // still call session.update() and get a SessionPausedException.
       cpuImageDisplayRotationHelper.onPause();
       surfaceView.onPause();
+      stopTrackingThread();
       session.pause();
     }
-    //
+
+    // deliver the events that are batched in the sensor FIFOs, such that they are written to disk
+    // while paused (see onFlushCompleted)
+    manager.flush(VIslam2tagActivity.this);
+  }
+
+  @Override
+  protected void onStart() {
+    super.onStart();
+    preallocateRecording();
+  }
+
+  @Override
+  protected void onStop() {
+    super.onStop();
+    // the recording is stopped by killing the app (e.g. from the recent apps screen), which
+    // happens while the activity is stopped, hence the files only hold complete records meanwhile
+    trimRecording();
   }
 
   //
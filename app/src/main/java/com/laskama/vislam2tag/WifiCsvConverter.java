@@ -0,0 +1,88 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Converts a binary WLAN recording (wifi.bin) into the wifi.csv layout expected by the
+ * post-processing module (VI-SLAM2tag_post):
+ *
+ *   scan; ScanResult.timestamp (us); WLAN; SSID; BSSID; level; timestamp (ns);
+ *   frequency; channelWidth; centerFreq0; centerFreq1; 80211mc responder (0/1); age (us)
+ *
+ * Recordings of a session that was not closed (app killed) are recovered first, see
+ * {@link MappedRecordFile#recoverFile(File)}.
+ *
+ * Can be run on a desktop machine:
+ *   java com.laskama.vislam2tag.WifiCsvConverter <session>/wifi.bin [<session>/wifi.csv]
+ */
+public class WifiCsvConverter {
+
+    public static long convert(File binFile, File csvFile) throws IOException {
+        MappedRecordFile.recoverFile(binFile);
+        long count = 0;
+        try (WifiRecordReader reader = new WifiRecordReader(new FileInputStream(binFile).getChannel());
+             Writer writer = new BufferedWriter(new FileWriter(csvFile))) {
+            StringBuilder line = new StringBuilder(128);
+            while (reader.nextScan()) {
+                for (int i = 0; i < reader.getAccessPointCount(); i++) {
+                    line.setLength(0);
+                    appendCsvLine(reader, i, line);
+                    writer.append(line);
+                    count ++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /** Appends the wifi.csv line (including line break) of the i-th access point of the scan. */
+    static void appendCsvLine(WifiRecordReader reader, int i, StringBuilder line) {
+        long timestamp = reader.getTimestamp(i);
+        line.append(reader.getScan()).append("; ")
+                .append(timestamp).append("; WLAN; ")
+                .append(reader.getSsid(i)).append("; ")
+                .append(reader.getBssid(i)).append("; ")
+                .append(reader.getLevel(i)).append("; ")
+                .append(WifiRecordFormat.toNanos(timestamp)).append("; ")
+                .append(reader.getFrequency(i)).append("; ")
+                .append(reader.getChannelWidth(i)).append("; ")
+                .append(reader.getCenterFreq0(i)).append("; ")
+                .append(reader.getCenterFreq1(i)).append("; ")
+                .append(reader.is80211mcResponder(i) ? 1 : 0).append("; ")
+                .append(reader.getAge(i))
+                .append('\n');
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: WifiCsvConverter <wifi.bin> [<wifi.csv>]");
+            System.exit(1);
+        }
+        File binFile = new File(args[0]);
+        File csvFile = args.length > 1 ? new File(args[1]) : new File(binFile.getParentFile(), "wifi.csv");
+
+        long count = convert(binFile, csvFile);
+        System.out.println("Converted " + count + " records to " + csvFile.getPath());
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Schema of the binary WLAN recording (wifi.bin).
+ *
+ * BSSIDs are interned into a dictionary of the session: every access point gets a small id when
+ * it is seen for the first time and its MAC address and SSID are written only once. The file
+ * starts with a header
+ *   magic "VSLW" | version (short)
+ * followed by a sequence of records, starting with the record kind (byte):
+ *   entry: kind 1 | id (short) | BSSID (6 bytes) | SSID length (byte) | SSID (UTF-8)
+ *   scan:  kind 2 | scan number (int) | base timestamp in us since boot (long) |
+ *          delivery time of the scan in us since boot (long) | AP count (short) |
+ *          per AP: id (short) | level in dBm (byte) | frequency in MHz (short) |
+ *                  ScanResult.timestamp - base timestamp in us (int) |
+ *                  channel width (byte, ScanResult.CHANNEL_WIDTH_*) | center frequency 0 (short) |
+ *                  center frequency 1 (short) | flags (byte, FLAG_*)
+ * An entry precedes the first scan that refers to its id. If the SSID of a BSSID changes, the
+ * entry is written again with the same id.
+ *
+ * All numbers are little endian, ids and frequencies are unsigned. {@link WifiCsvConverter}
+ * restores the wifi.csv layout. This class must not depend on the android framework, since the
+ * reader and converter are also used on desktop machines.
+ */
+public final class WifiRecordFormat {
+
+    public static final int MAGIC = 0x574c5356; // "VSLW" when written little endian
+    public static final short VERSION = 1;
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    public static final int HEADER_SIZE = 4 + 2;
+
+    public static final byte KIND_ENTRY = 1;
+    public static final byte KIND_SCAN = 2;
+
+    public static final int MAX_SSID_LENGTH = 255;
+    public static final int MAX_ENTRY_SIZE = 1 + 2 + 6 + 1 + MAX_SSID_LENGTH;
+    public static final int SCAN_HEADER_SIZE = 1 + 4 + 8 + 8 + 2;
+    public static final int ACCESS_POINT_SIZE = 2 + 1 + 2 + 4 + 1 + 2 + 2 + 1;
+
+    // access point flags
+    public static final int FLAG_80211MC_RESPONDER = 1;
+
+    // ids are stored as unsigned short
+    public static final int MAX_ID_COUNT = 0x10000;
+    public static final int MAX_ACCESS_POINTS_PER_SCAN = 0xFFFF;
+
+    private WifiRecordFormat() {
+    }
+
+    /**
+     * Converts a timestamp of the recording (us since boot) to ns since boot, the time base of the
+     * other streams (same as Timebase.fromBootMicros, which depends on the android framework).
+     */
+    public static long toNanos(long micros) {
+        return micros * 1000;
+    }
+
+    static void writeHeader(ByteBuffer out) {
+        out.putInt(MAGIC);
+        out.putShort(VERSION);
+    }
+
+    /**
+     * Packs a BSSID (e.g. "0a:1b:2c:3d:4e:5f") into the lower 48 bits of a long.
+     *
+     * @return -1 if the string is not a MAC address.
+     */
+    public static long packBssid(String bssid) {
+        if (bssid == null || bssid.length() != 17) {
+            return -1;
+        }
+        long mac = 0;
+        for (int i = 0; i < 6; i++) {
+            int high = Character.digit(bssid.charAt(i * 3), 16);
+            int low = Character.digit(bssid.charAt(i * 3 + 1), 16);
+            if (high < 0 || low < 0 || (i < 5 && bssid.charAt(i * 3 + 2) != ':')) {
+                return -1;
+            }
+            mac = (mac << 8) | (high << 4) | low;
+        }
+        return mac;
+    }
+
+    /** Formats a packed BSSID like android (lower case hex digits separated by colons). */
+    public static String formatBssid(long mac) {
+        char[] text = new char[17];
+        for (int i = 0; i < 6; i++) {
+            int octet = (int) (mac >>> (40 - 8 * i)) & 0xFF;
+            text[i * 3] = Character.forDigit(octet >>> 4, 16);
+            text[i * 3 + 1] = Character.forDigit(octet & 0xF, 16);
+            if (i < 5) {
+                text[i * 3 + 2] = ':';
+            }
+        }
+        return new String(text);
+    }
+
+    /** SSID as UTF-8, cut to the maximum length. */
+    static byte[] encodeSsid(String ssid) {
+        byte[] bytes = (ssid == null ? "" : ssid).getBytes(StandardCharsets.UTF_8);
+        if (bytes.length <= MAX_SSID_LENGTH) {
+            return bytes;
+        }
+        byte[] cut = new byte[MAX_SSID_LENGTH];
+        System.arraycopy(bytes, 0, cut, 0, cut.length);
+        return cut;
+    }
+
+    static void writeMac(ByteBuffer out, long mac) {
+        for (int i = 0; i < 6; i++) {
+            out.put((byte) (mac >>> (40 - 8 * i)));
+        }
+    }
+
+    static long readMac(ByteBuffer in) {
+        long mac = 0;
+        for (int i = 0; i < 6; i++) {
+            mac = (mac << 8) | (in.get() & 0xFF);
+        }
+        return mac;
+    }
+}
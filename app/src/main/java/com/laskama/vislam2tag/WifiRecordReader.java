@@ -0,0 +1,263 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads a binary WLAN recording (see {@link WifiRecordFormat}) scan by scan. Dictionary entries
+ * are resolved while reading. A truncated last scan (e.g. if the app was killed while writing) is
+ * ignored. The zero padding of a file that was not closed is not detected, such files must be
+ * recovered first (see {@link MappedRecordFile#recoverFile(java.io.File)}).
+ *
+ * Usage:
+ *   while (reader.nextScan()) {
+ *     for (int i = 0; i < reader.getAccessPointCount(); i++) { reader.getBssid(i); reader.getLevel(i); ... }
+ *   }
+ */
+public class WifiRecordReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private boolean endOfStream = false;
+
+    // dictionary, indexed by id
+    private long[] macs = new long[256];
+    private String[] bssids = new String[256];
+    private String[] ssids = new String[256];
+    private int dictionarySize = 0;
+
+    // current scan
+    private int scan;
+    private long baseTimestamp;
+    private long scanTime;
+    private int accessPointCount;
+    private int[] ids = new int[64];
+    private int[] levels = new int[64];
+    private int[] frequencies = new int[64];
+    private long[] timestamps = new long[64];
+    private int[] channelWidths = new int[64];
+    private int[] centerFrequencies0 = new int[64];
+    private int[] centerFrequencies1 = new int[64];
+    private int[] flags = new int[64];
+
+    public WifiRecordReader(ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+        this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.buffer.order(WifiRecordFormat.BYTE_ORDER);
+        this.buffer.flip();
+
+        if (!ensure(WifiRecordFormat.HEADER_SIZE)) {
+            throw new IOException("Missing WLAN recording header");
+        }
+        if (buffer.getInt() != WifiRecordFormat.MAGIC) {
+            throw new IOException("Not a WLAN recording (invalid magic)");
+        }
+        short version = buffer.getShort();
+        if (version != WifiRecordFormat.VERSION) {
+            throw new IOException("Unsupported WLAN recording version " + version);
+        }
+    }
+
+    /**
+     * Advances to the next scan.
+     *
+     * @return false if the end of the recording is reached
+     */
+    public boolean nextScan() throws IOException {
+        while (ensure(1)) {
+            byte kind = buffer.get(buffer.position());
+            if (kind == WifiRecordFormat.KIND_ENTRY) {
+                if (!readEntry()) {
+                    return false;
+                }
+            } else if (kind == WifiRecordFormat.KIND_SCAN) {
+                return readScan();
+            } else {
+                throw new IOException("Invalid record kind " + kind);
+            }
+        }
+        return false;
+    }
+
+    private boolean readEntry() throws IOException {
+        if (!ensure(1 + 2 + 6 + 1)) {
+            return false;
+        }
+        int ssidLength = buffer.get(buffer.position() + 1 + 2 + 6) & 0xFF;
+        if (!ensure(1 + 2 + 6 + 1 + ssidLength)) {
+            return false;
+        }
+        buffer.get();
+        int id = buffer.getShort() & 0xFFFF;
+        long mac = WifiRecordFormat.readMac(buffer);
+        buffer.get();
+        byte[] ssid = new byte[ssidLength];
+        buffer.get(ssid);
+
+        if (id >= macs.length) {
+            int capacity = Math.max(macs.length * 2, id + 1);
+            macs = Arrays.copyOf(macs, capacity);
+            bssids = Arrays.copyOf(bssids, capacity);
+            ssids = Arrays.copyOf(ssids, capacity);
+        }
+        macs[id] = mac;
+        bssids[id] = WifiRecordFormat.formatBssid(mac);
+        ssids[id] = new String(ssid, StandardCharsets.UTF_8);
+        dictionarySize = Math.max(dictionarySize, id + 1);
+        return true;
+    }
+
+    private boolean readScan() throws IOException {
+        if (!ensure(WifiRecordFormat.SCAN_HEADER_SIZE)) {
+            return false;
+        }
+        buffer.get();
+        scan = buffer.getInt();
+        baseTimestamp = buffer.getLong();
+        scanTime = buffer.getLong();
+        int count = buffer.getShort() & 0xFFFF;
+
+        if (count > ids.length) {
+            int capacity = Math.max(ids.length * 2, count);
+            ids = Arrays.copyOf(ids, capacity);
+            levels = Arrays.copyOf(levels, capacity);
+            frequencies = Arrays.copyOf(frequencies, capacity);
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            channelWidths = Arrays.copyOf(channelWidths, capacity);
+            centerFrequencies0 = Arrays.copyOf(centerFrequencies0, capacity);
+            centerFrequencies1 = Arrays.copyOf(centerFrequencies1, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+        }
+        for (int i = 0; i < count; i++) {
+            if (!ensure(WifiRecordFormat.ACCESS_POINT_SIZE)) {
+                // torn scan at the end of the file
+                return false;
+            }
+            int id = buffer.getShort() & 0xFFFF;
+            if (id >= dictionarySize || bssids[id] == null) {
+                throw new IOException("Unknown BSSID id " + id + " in scan " + scan);
+            }
+            ids[i] = id;
+            levels[i] = buffer.get();
+            frequencies[i] = buffer.getShort() & 0xFFFF;
+            timestamps[i] = baseTimestamp + buffer.getInt();
+            channelWidths[i] = buffer.get();
+            centerFrequencies0[i] = buffer.getShort() & 0xFFFF;
+            centerFrequencies1[i] = buffer.getShort() & 0xFFFF;
+            flags[i] = buffer.get();
+        }
+        accessPointCount = count;
+        return true;
+    }
+
+    // makes sure that at least the given number of bytes is available within the buffer
+    private boolean ensure(int bytes) throws IOException {
+        while (buffer.remaining() < bytes) {
+            if (endOfStream) {
+                return false;
+            }
+            buffer.compact();
+            if (channel.read(buffer) < 0) {
+                endOfStream = true;
+            }
+            buffer.flip();
+        }
+        return true;
+    }
+
+    public int getScan() {
+        return scan;
+    }
+
+    /** Time the scan was delivered (us since boot). */
+    public long getScanTime() {
+        return scanTime;
+    }
+
+    public int getAccessPointCount() {
+        return accessPointCount;
+    }
+
+    /** Dictionary id of the i-th access point of the scan (dense, starting at 0). */
+    public int getId(int i) {
+        return ids[i];
+    }
+
+    public long getMac(int i) {
+        return macs[ids[i]];
+    }
+
+    public String getBssid(int i) {
+        return bssids[ids[i]];
+    }
+
+    public String getSsid(int i) {
+        return ssids[ids[i]];
+    }
+
+    public int getLevel(int i) {
+        return levels[i];
+    }
+
+    public int getFrequency(int i) {
+        return frequencies[i];
+    }
+
+    /** ScanResult.timestamp of the i-th access point (us since boot). */
+    public long getTimestamp(int i) {
+        return timestamps[i];
+    }
+
+    public int getChannelWidth(int i) {
+        return channelWidths[i];
+    }
+
+    public int getCenterFreq0(int i) {
+        return centerFrequencies0[i];
+    }
+
+    public int getCenterFreq1(int i) {
+        return centerFrequencies1[i];
+    }
+
+    public boolean is80211mcResponder(int i) {
+        return (flags[i] & WifiRecordFormat.FLAG_80211MC_RESPONDER) != 0;
+    }
+
+    /** Time between the measurement of the access point and the delivery of the scan in us. */
+    public long getAge(int i) {
+        return scanTime - timestamps[i];
+    }
+
+    /** Number of BSSIDs read so far. */
+    public int getDictionarySize() {
+        return dictionarySize;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Writes WLAN scans as binary records with a BSSID dictionary (see {@link WifiRecordFormat}).
+ *
+ * A scan is written via {@link #beginScan}, {@link #addAccessPoint} per access point and
+ * {@link #endScan}, the encoded records are handed to the writer via {@link #takeBytes()}. The
+ * writer keeps the dictionary of the session, hence a single instance must be used for the whole
+ * file and only by one thread at a time.
+ */
+public class WifiRecordWriter {
+
+    private static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+    private final LongIntHashMap ids = new LongIntHashMap(512);
+    private String[] ssids = new String[512];
+
+    // dictionary entries and complete scans
+    private ByteBuffer buffer;
+    // access points of the current scan (written after the entries of new BSSIDs)
+    private ByteBuffer scanBuffer;
+
+    private int scan;
+    private long baseTimestamp;
+    private long scanTime;
+    private int accessPointCount;
+
+    private long scanCount = 0;
+    private long accessPointTotal = 0;
+    private long skippedCount = 0;
+
+    public WifiRecordWriter() {
+        buffer = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE).order(WifiRecordFormat.BYTE_ORDER);
+        scanBuffer = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE).order(WifiRecordFormat.BYTE_ORDER);
+        WifiRecordFormat.writeHeader(buffer);
+    }
+
+    /**
+     * @param scan number of the scan (first column of wifi.csv)
+     * @param baseTimestamp reference for the access point timestamps in us since boot (e.g. the
+     *                      delivery time of the scan, results may contain arbitrarily old entries)
+     * @param scanTime time the scan was delivered in us since boot
+     */
+    public void beginScan(int scan, long baseTimestamp, long scanTime) {
+        this.scan = scan;
+        this.baseTimestamp = baseTimestamp;
+        this.scanTime = scanTime;
+        this.accessPointCount = 0;
+        scanBuffer.clear();
+    }
+
+    /**
+     * Adds an access point to the current scan.
+     *
+     * @param channelWidth ScanResult.channelWidth (CHANNEL_WIDTH_* constant)
+     * @param timestamp ScanResult.timestamp (us since boot)
+     * @return false if the access point was skipped (BSSID is not a MAC address, too many ids,
+     *         timestamp more than ~35 minutes away from the base timestamp)
+     */
+    public boolean addAccessPoint(String bssid, String ssid, int level, int frequency, int channelWidth,
+                                  int centerFreq0, int centerFreq1, boolean rttResponder, long timestamp) {
+        long mac = WifiRecordFormat.packBssid(bssid);
+        long offset = timestamp - baseTimestamp;
+        if (mac < 0 || accessPointCount == WifiRecordFormat.MAX_ACCESS_POINTS_PER_SCAN
+                || offset < Integer.MIN_VALUE || offset > Integer.MAX_VALUE) {
+            skippedCount ++;
+            return false;
+        }
+        int id = intern(mac, ssid);
+        if (id < 0) {
+            skippedCount ++;
+            return false;
+        }
+
+        scanBuffer = ensure(scanBuffer, WifiRecordFormat.ACCESS_POINT_SIZE);
+        scanBuffer.putShort((short) id);
+        scanBuffer.put((byte) Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, level)));
+        scanBuffer.putShort((short) frequency);
+        scanBuffer.putInt((int) offset);
+        scanBuffer.put((byte) channelWidth);
+        scanBuffer.putShort((short) centerFreq0);
+        scanBuffer.putShort((short) centerFreq1);
+        scanBuffer.put((byte) (rttResponder ? WifiRecordFormat.FLAG_80211MC_RESPONDER : 0));
+        accessPointCount ++;
+        return true;
+    }
+
+    // id of the BSSID, writes a dictionary entry for new BSSIDs or changed SSIDs
+    private int intern(long mac, String ssid) {
+        if (ssid == null) {
+            ssid = "";
+        }
+        int id = ids.get(mac, -1);
+        if (id < 0) {
+            id = ids.size();
+            if (id == WifiRecordFormat.MAX_ID_COUNT) {
+                return -1;
+            }
+            ids.put(mac, id);
+            if (id == ssids.length) {
+                ssids = Arrays.copyOf(ssids, ssids.length * 2);
+            }
+        } else if (ssid.equals(ssids[id])) {
+            return id;
+        }
+        ssids[id] = ssid;
+
+        byte[] ssidBytes = WifiRecordFormat.encodeSsid(ssid);
+        buffer = ensure(buffer, WifiRecordFormat.MAX_ENTRY_SIZE);
+        buffer.put(WifiRecordFormat.KIND_ENTRY);
+        buffer.putShort((short) id);
+        WifiRecordFormat.writeMac(buffer, mac);
+        buffer.put((byte) ssidBytes.length);
+        buffer.put(ssidBytes);
+        return id;
+    }
+
+    public void endScan() {
+        scanBuffer.flip();
+        buffer = ensure(buffer, WifiRecordFormat.SCAN_HEADER_SIZE + scanBuffer.remaining());
+        buffer.put(WifiRecordFormat.KIND_SCAN);
+        buffer.putInt(scan);
+        buffer.putLong(baseTimestamp);
+        buffer.putLong(scanTime);
+        buffer.putShort((short) accessPointCount);
+        buffer.put(scanBuffer);
+        scanCount ++;
+        accessPointTotal += accessPointCount;
+    }
+
+    // grows the buffer if it can not hold the given number of additional bytes
+    private static ByteBuffer ensure(ByteBuffer b, int bytes) {
+        if (b.remaining() >= bytes) {
+            return b;
+        }
+        ByteBuffer grown = ByteBuffer.allocate(Math.max(b.capacity() * 2, b.position() + bytes))
+                .order(WifiRecordFormat.BYTE_ORDER);
+        b.flip();
+        grown.put(b);
+        return grown;
+    }
+
+    /** Returns the complete scans (and their dictionary entries) encoded since the last call. */
+    public ByteBuffer takeBytes() {
+        buffer.flip();
+        ByteBuffer bytes = ByteBuffer.allocate(buffer.remaining());
+        bytes.put(buffer);
+        bytes.flip();
+        buffer.clear();
+        return bytes;
+    }
+
+    public int getDictionarySize() {
+        return ids.size();
+    }
+
+    public long getScanCount() {
+        return scanCount;
+    }
+
+    public long getAccessPointCount() {
+        return accessPointTotal;
+    }
+
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import android.net.wifi.ScanResult;
+import android.util.Log;
+
+import java.io.IOException;
+import java.text.DecimalFormatSymbols;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Encodes the results of a WLAN scan in a single pass on the thread that receives them:
+ *  - drops stale access points of cached results ({@link ScanDeduplicator}),
+ *  - encodes the fresh ones for wifi.bin ({@link WifiRecordWriter}) or wifi.csv,
+ *  - labels them with the interpolated camera pose for fingerprints.csv ({@link PoseHistory}).
+ * Each file gets a single batch per scan, the result list itself is neither copied nor kept.
+ * Optionally, the wifi.csv lines are offered to a {@link StreamMerger} as well (for wifi.bin, which
+ * is not merged by its lane).
+ *
+ * wifi.csv:         scan; ScanResult.timestamp (us); WLAN; SSID; BSSID; level; timestamp (ns);
+ *                   frequency; channelWidth; centerFreq0; centerFreq1; 80211mc responder (0/1); age (us)
+ * fingerprints.csv: scan; timestamp; BSSID; SSID; level; frequency; tx; ty; tz; qx; qy; qz; qw
+ *
+ * An encoder must only be used by a single thread, the counters may be read by other threads.
+ */
+public class WifiScanEncoder {
+
+    private static final String TAG = WifiScanEncoder.class.getSimpleName();
+
+    private static final int POSE_DECIMALS = 6;
+
+    private final WriterLane wifiLane;
+    // null if wifi.csv is written
+    private final WifiRecordWriter binaryWriter;
+    private final WriterLane fingerprintLane;
+    private final PoseHistory poseHistory;
+    private final ScanDeduplicator deduplicator = new ScanDeduplicator();
+
+    private final StringBuilder wifiText = new StringBuilder(4096);
+    private final StringBuilder fingerprintText = new StringBuilder(4096);
+    private final StringBuilder mergerLine = new StringBuilder(256);
+    private final float[] pose = new float[PoseHistory.POSE_VALUES];
+    // same decimal separator as String.format
+    private final char decimalSeparator = DecimalFormatSymbols.getInstance().getDecimalSeparator();
+
+    private StreamMerger merger;
+    private int mergerStream;
+
+    private long newestTimestamp;
+    private volatile long labeledCount = 0;
+    private volatile long unlabeledCount = 0;
+
+    /**
+     * @param binaryWriter writer of wifi.bin, null to write wifi.csv
+     */
+    public WifiScanEncoder(WriterLane wifiLane, WifiRecordWriter binaryWriter, WriterLane fingerprintLane,
+                           PoseHistory poseHistory) {
+        this.wifiLane = wifiLane;
+        this.binaryWriter = binaryWriter;
+        this.fingerprintLane = fingerprintLane;
+        this.poseHistory = poseHistory;
+    }
+
+    /** Offers the wifi.csv line of every written access point to the given stream of the merger. */
+    public void setMerger(StreamMerger merger, int streamId) {
+        this.merger = merger;
+        this.mergerStream = streamId;
+    }
+
+    /**
+     * Encodes the scan and submits it to the writer lanes.
+     *
+     * @param scanTime time the scan results were delivered (common time base, ns)
+     */
+    public void encode(int scan, long scanTime, List<ScanResult> results) {
+        long scanTimeMicros = scanTime / 1000;
+        newestTimestamp = Long.MIN_VALUE;
+        deduplicator.beginScan();
+        wifiText.setLength(0);
+        fingerprintText.setLength(0);
+        if (binaryWriter != null) {
+            // access points are stored relative to the delivery time, cached results may be old
+            binaryWriter.beginScan(scan, scanTimeMicros, scanTimeMicros);
+        }
+
+        for (int i = 0; i < results.size(); i++) {
+            ScanResult result = results.get(i);
+            newestTimestamp = Math.max(newestTimestamp, result.timestamp);
+            if (!deduplicator.accept(result.BSSID, result.timestamp)) {
+                continue;
+            }
+
+            if (binaryWriter != null) {
+                binaryWriter.addAccessPoint(result.BSSID, result.SSID, result.level,
+                        result.frequency, result.channelWidth, result.centerFreq0,
+                        result.centerFreq1, result.is80211mcResponder(), result.timestamp);
+            } else {
+                appendCsvLine(wifiText, scan, scanTime, result);
+            }
+            if (merger != null) {
+                offerToMerger(scan, scanTime, result);
+            }
+            appendFingerprint(scan, result);
+        }
+
+        if (binaryWriter != null) {
+            binaryWriter.endScan();
+            wifiLane.submit(new WriteWifiScan(binaryWriter.takeBytes()));
+        } else if (wifiText.length() > 0) {
+            wifiLane.submit(new WriteLines(Collections.singletonList(wifiText.toString())));
+        }
+        if (fingerprintText.length() > 0) {
+            fingerprintLane.submit(new WriteLines(Collections.singletonList(fingerprintText.toString())));
+        }
+    }
+
+    private static void appendCsvLine(StringBuilder text, int scan, long scanTime, ScanResult result) {
+        // the 7th column holds the timestamp in the common time base (ns since boot)
+        long timestamp = Timebase.fromBootMicros(result.timestamp);
+        text.append(scan).append("; ")
+                .append(result.timestamp).append("; WLAN; ")
+                .append(result.SSID).append("; ")
+                .append(result.BSSID).append("; ")
+                .append(result.level).append("; ")
+                .append(timestamp).append("; ")
+                .append(result.frequency).append("; ")
+                .append(result.channelWidth).append("; ")
+                .append(result.centerFreq0).append("; ")
+                .append(result.centerFreq1).append("; ")
+                .append(result.is80211mcResponder() ? 1 : 0).append("; ")
+                .append((scanTime - timestamp) / 1000).append('\n');
+    }
+
+    private void offerToMerger(int scan, long scanTime, ScanResult result) {
+        mergerLine.setLength(0);
+        appendCsvLine(mergerLine, scan, scanTime, result);
+        mergerLine.setLength(mergerLine.length() - 1);
+        try {
+            merger.offer(mergerStream, SessionStream.WIFI.timestampOf(result.timestamp), mergerLine.toString());
+        } catch (IOException e) {
+            Log.e(TAG, "Could not merge a WLAN scan", e);
+        }
+    }
+
+    /** Declares the end of the merged stream, no further scans must be encoded. */
+    public void closeMergerStream() {
+        if (merger == null) {
+            return;
+        }
+        try {
+            merger.closeStream(mergerStream);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not close the merged WLAN stream", e);
+        }
+    }
+
+    // access points measured at a time without a known pose are skipped
+    private void appendFingerprint(int scan, ScanResult result) {
+        long timestamp = Timebase.fromBootMicros(result.timestamp);
+        if (!poseHistory.interpolate(timestamp, pose)) {
+            unlabeledCount ++;
+            return;
+        }
+        fingerprintText.append(scan).append("; ").append(timestamp).append("; ")
+                .append(result.BSSID).append("; ").append(result.SSID).append("; ")
+                .append(result.level).append("; ").append(result.frequency);
+        for (float v : pose) {
+            fingerprintText.append("; ");
+            NumberAppender.appendFixed(fingerprintText, v, POSE_DECIMALS, decimalSeparator);
+        }
+        fingerprintText.append('\n');
+        labeledCount ++;
+    }
+
+    /** Newest ScanResult.timestamp of the last encoded scan (Long.MIN_VALUE if it was empty). */
+    public long getNewestTimestamp() {
+        return newestTimestamp;
+    }
+
+    /** Number of written access points of the last encoded scan. */
+    public int getFreshCount() {
+        return deduplicator.getFreshCount();
+    }
+
+    /** Number of dropped (stale) access points of the last encoded scan. */
+    public int getStaleCount() {
+        return deduplicator.getStaleCount();
+    }
+
+    public long getStaleTotal() {
+        return deduplicator.getStaleTotal();
+    }
+
+    public long getLabeledCount() {
+        return labeledCount;
+    }
+
+    public long getUnlabeledCount() {
+        return unlabeledCount;
+    }
+}
@@ -16,33 +16,23 @@
 
 package com.laskama.vislam2tag;
 
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.List;
-import java.util.concurrent.Callable;
 
-public class WriteSensorReadings implements Callable<Integer> {
+/** Writes complete text lines (including their line breaks) to the file of a lane. */
+public class WriteLines implements RecordBatch {
 
     private final List<String> lines;
-    FileWriter writer;
 
-    public WriteSensorReadings(List<String> sensorReadings, FileWriter writer) {
-        this.lines = sensorReadings;
-        this.writer = writer;
+    public WriteLines(List<String> lines) {
+        this.lines = lines;
     }
 
     @Override
-    public Integer call() {
-        // Some long running task
-        try {
-            for (String line: lines) {
-                writer.write(line);
-            }
-            writer.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+    public void writeTo(RecordSink sink) throws IOException {
+        // executed by the writer lane of the target file (the lane commits afterwards)
+        for (String line: lines) {
+            sink.write(line);
         }
-
-        return 0;
     }
 }
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/** Writes WLAN scans that were encoded for wifi.bin (see {@link WifiRecordWriter#takeBytes()}). */
+public class WriteWifiScan implements RecordBatch {
+
+    private final ByteBuffer bytes;
+
+    public WriteWifiScan(ByteBuffer bytes) {
+        this.bytes = bytes;
+    }
+
+    @Override
+    public void writeTo(RecordSink sink) throws IOException {
+        // executed by the writer lane of wifi.bin
+        sink.write(bytes);
+    }
+}
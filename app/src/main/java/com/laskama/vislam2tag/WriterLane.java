@@ -0,0 +1,266 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serial writer for a single output stream.
+ *
+ * Batches are written by one dedicated thread in the order they were submitted, hence the
+ * records of a stream can neither overtake each other nor be written concurrently. The queue is
+ * bounded: if it is full, the submitting thread waits up to the configured timeout (backpressure)
+ * before the batch is dropped and counted. All batches that are queued at the time the lane
+ * thread wakes up are merged into one write followed by a single commit of the sink.
+ *
+ * A batch that fails to write is counted and rolled back, the lane keeps writing the following
+ * ones. If the sink can not be rolled back, nothing is committed anymore, i.e. the file keeps its
+ * last consistent state and the following batches are counted as failed. The last error is kept
+ * for the caller to report (see {@link #getLastError()}). Batches that are submitted while the
+ * lane is closed are dropped and counted.
+ */
+public class WriterLane {
+
+    // maximum number of queued batches that are merged into one write
+    private static final int MAX_MERGED_BATCHES = 64;
+
+    // marks the end of the stream
+    private static final RecordBatch END_OF_STREAM = sink -> { };
+
+    // trim or preallocate the file after the commit of the preceding batches
+    private static final RecordBatch TRIM = RecordSink::trim;
+    private static final RecordBatch PREALLOCATE = RecordSink::preallocate;
+
+    private final String name;
+    private final RecordSink sink;
+    private final BlockingQueue<RecordBatch> queue;
+    private final long offerTimeoutMillis;
+    private final Thread thread;
+
+    private volatile boolean closed = false;
+    // set once the lane thread has finished and the queue was drained
+    private volatile boolean finished = false;
+
+    // batches may be submitted from several threads
+    private final AtomicLong submittedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    // only written by the lane thread
+    private volatile long writtenCount = 0;
+    private volatile long commitCount = 0;
+    private volatile long failedCount = 0;
+    private volatile Exception lastError;
+    // false once a failed batch could not be rolled back
+    private boolean consistent = true;
+
+    public WriterLane(String name, RecordSink sink, int capacity, long offerTimeoutMillis) {
+        this.name = name;
+        this.sink = sink;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.offerTimeoutMillis = offerTimeoutMillis;
+
+        this.thread = new Thread(this::run, "WriterLane-" + name);
+        this.thread.start();
+    }
+
+    /**
+     * Queues a batch for writing. Blocks up to the offer timeout if the queue is full.
+     *
+     * @return false if the batch was dropped (a batch that is queued concurrently to close() may
+     *         still be dropped afterwards, it is counted as well)
+     */
+    public boolean submit(RecordBatch batch) {
+        if (closed) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        submittedCount.incrementAndGet();
+        try {
+            if (queue.offer(batch, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                // the lane may have been closed concurrently, batches that were queued after it
+                // was drained are removed again (close() counts the ones that it drained)
+                if (!finished || !queue.remove(batch)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        droppedCount.incrementAndGet();
+        return false;
+    }
+
+    private void run() {
+        List<RecordBatch> batches = new ArrayList<>(MAX_MERGED_BATCHES);
+        boolean endOfStream = false;
+        RecordBatch control = null;
+
+        while (!endOfStream) {
+            try {
+                batches.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batches, MAX_MERGED_BATCHES - 1);
+
+            for (RecordBatch batch : batches) {
+                if (endOfStream) {
+                    // submitted concurrently to close()
+                    droppedCount.incrementAndGet();
+                } else if (batch == END_OF_STREAM) {
+                    endOfStream = true;
+                } else if (batch == TRIM || batch == PREALLOCATE) {
+                    control = batch;
+                } else {
+                    write(batch);
+                }
+            }
+            if (consistent) {
+                try {
+                    sink.commit();
+                    commitCount ++;
+                    if (control != null) {
+                        control.writeTo(sink);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    lastError = e;
+                }
+            }
+            control = null;
+            batches.clear();
+        }
+
+        // an inconsistent file is not closed, the recovery truncates it to its last commit
+        if (consistent) {
+            try {
+                sink.close();
+            } catch (IOException | RuntimeException e) {
+                lastError = e;
+            }
+        }
+    }
+
+    private void write(RecordBatch batch) {
+        if (!consistent) {
+            failedCount ++;
+            return;
+        }
+        // a failing batch must neither skip the other batches nor stop the lane thread
+        long length = sink.getBytesWritten();
+        try {
+            batch.writeTo(sink);
+            writtenCount ++;
+        } catch (IOException | RuntimeException e) {
+            failedCount ++;
+            lastError = e;
+            try {
+                sink.rollback(length);
+            } catch (IOException | RuntimeException rollbackError) {
+                consistent = false;
+                lastError = rollbackError;
+            }
+        }
+    }
+
+    /**
+     * Trims the file once the batches submitted so far are written (see {@link RecordSink#trim()}).
+     * Like {@link #close()}, this must be called by the thread that closes the lane.
+     *
+     * @return false if the lane is closed or its queue stayed full
+     */
+    public boolean trim() {
+        return control(TRIM);
+    }
+
+    /** Reserves space in the file again once the batches submitted so far are written. */
+    public boolean preallocate() {
+        return control(PREALLOCATE);
+    }
+
+    private boolean control(RecordBatch marker) {
+        if (closed) {
+            return false;
+        }
+        try {
+            return queue.offer(marker, offerTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /** Writes all queued batches, closes the sink and waits for the lane thread to finish. */
+    public void close() throws InterruptedException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.put(END_OF_STREAM);
+        thread.join();
+
+        // batches of submits that passed the closed check before the lane was closed
+        finished = true;
+        List<RecordBatch> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        droppedCount.addAndGet(remaining.size());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getSubmittedCount() {
+        return submittedCount.get();
+    }
+
+    public long getWrittenCount() {
+        return writtenCount;
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /** Number of batches that could not be written (e.g. IOException of the sink). */
+    public long getFailedCount() {
+        return failedCount;
+    }
+
+    /** Last error of a write, commit or close of the sink, null if there was none. */
+    public Exception getLastError() {
+        return lastError;
+    }
+
+    /** Number of (merged) writes, each followed by a commit of the sink. */
+    public long getCommitCount() {
+        return commitCount;
+    }
+
+    public long getBytesWritten() {
+        return sink.getBytesWritten();
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Writer subsystem of a recording session: one {@link WriterLane} (serial writer thread with a
+ * bounded queue) per output file. Files are written via {@link MappedRecordFile}.
+ *
+ * If a {@link StreamMerger} is set, the lines of the session streams (see {@link SessionStream})
+ * are additionally merged into a single time ordered log.
+ */
+public class WriterPipeline {
+
+    private static final int DEFAULT_LANE_CAPACITY = 64;
+    private static final long DEFAULT_OFFER_TIMEOUT_MILLIS = 50;
+
+    private final File dir;
+    private final int laneCapacity;
+    private final long offerTimeoutMillis;
+
+    // lanes are only opened at the start and the end of a session, the view is read by the HUD
+    private final List<WriterLane> lanes = new CopyOnWriteArrayList<>();
+    private final List<WriterLane> lanesView = Collections.unmodifiableList(lanes);
+
+    private StreamMerger merger;
+    private int mergerWindow;
+
+    public WriterPipeline(File dir) {
+        this(dir, DEFAULT_LANE_CAPACITY, DEFAULT_OFFER_TIMEOUT_MILLIS);
+    }
+
+    public WriterPipeline(File dir, int laneCapacity, long offerTimeoutMillis) {
+        this.dir = dir;
+        this.laneCapacity = laneCapacity;
+        this.offerTimeoutMillis = offerTimeoutMillis;
+    }
+
+    /**
+     * Merges the session streams of all lanes opened afterwards.
+     *
+     * @param window reorder window of each stream (see {@link StreamMerger#addStream}).
+     */
+    public synchronized void setMerger(StreamMerger merger, int window) {
+        this.merger = merger;
+        this.mergerWindow = window;
+    }
+
+    /** Creates the given file within the session folder and a lane that writes to it. */
+    public synchronized WriterLane openLane(String fileName) throws IOException {
+        RecordSink sink = openSink(fileName);
+        SessionStream stream = SessionStream.ofFile(fileName);
+        if (merger != null && stream != null) {
+            sink = new MergingSink(sink, merger, stream, merger.addStream(stream.name(), mergerWindow));
+        }
+        WriterLane lane = new WriterLane(fileName, sink, laneCapacity, offerTimeoutMillis);
+        lanes.add(lane);
+        return lane;
+    }
+
+    /** Creates the given file within the session folder for a writer outside of this pipeline. */
+    public RecordSink openSink(String fileName) throws IOException {
+        return new MappedRecordFile(new File(dir, fileName));
+    }
+
+    /** Read-only view of the opened lanes, it is not copied on every call. */
+    public List<WriterLane> getLanes() {
+        return lanesView;
+    }
+
+    /**
+     * Trims the files of all lanes after their pending batches (see {@link WriterLane#trim()}).
+     *
+     * @return number of lanes whose queue stayed full
+     */
+    public synchronized int trim() {
+        int failed = 0;
+        for (WriterLane lane : lanes) {
+            if (!lane.trim()) {
+                failed ++;
+            }
+        }
+        return failed;
+    }
+
+    /** Reserves space in the files of all lanes again (see {@link WriterLane#preallocate()}). */
+    public synchronized int preallocate() {
+        int failed = 0;
+        for (WriterLane lane : lanes) {
+            if (!lane.preallocate()) {
+                failed ++;
+            }
+        }
+        return failed;
+    }
+
+    /** Writes all pending batches and closes every file. */
+    public synchronized void close() throws InterruptedException {
+        for (WriterLane lane : lanes) {
+            lane.close();
+        }
+    }
+}
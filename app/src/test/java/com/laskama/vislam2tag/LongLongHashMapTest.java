@@ -0,0 +1,167 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LongLongHashMapTest {
+
+    private static final long MISSING = Long.MIN_VALUE;
+
+    /** Initial slot of a key in a map of the given capacity (same hash as LongLongHashMap). */
+    private static int slot(long key, int capacity) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & (capacity - 1);
+    }
+
+    @Test
+    public void returnsTheMissingValueForUnknownKeys() {
+        LongLongHashMap map = new LongLongHashMap();
+        assertEquals(MISSING, map.get(42, MISSING));
+        assertFalse(map.containsKey(42));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    public void storesAndOverwritesValues() {
+        LongLongHashMap map = new LongLongHashMap();
+        map.put(42, 1);
+        map.put(43, 2);
+        map.put(42, 3);
+
+        assertEquals(3, map.get(42, MISSING));
+        assertEquals(2, map.get(43, MISSING));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void supportsAllKeys() {
+        LongLongHashMap map = new LongLongHashMap();
+        long[] keys = {0, -1, Long.MIN_VALUE, Long.MAX_VALUE};
+        for (int i = 0; i < keys.length; i++) {
+            map.put(keys[i], i);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            assertTrue(map.containsKey(keys[i]));
+            assertEquals(i, map.get(keys[i], MISSING));
+        }
+    }
+
+    @Test
+    public void resolvesCollisions() {
+        // the default map has a capacity of 32, find keys with the same initial slot
+        int capacity = 32;
+        long[] keys = new long[8];
+        int found = 0;
+        for (long key = 0; found < keys.length; key++) {
+            if (slot(key, capacity) == 5) {
+                keys[found ++] = key;
+            }
+        }
+
+        LongLongHashMap map = new LongLongHashMap();
+        for (int i = 0; i < keys.length; i++) {
+            map.put(keys[i], i * 10);
+        }
+        assertEquals(keys.length, map.size());
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(i * 10, map.get(keys[i], MISSING));
+        }
+        // a key with the same slot that was not added is still missing
+        long absent = keys[keys.length - 1] + 1;
+        while (slot(absent, capacity) != 5) {
+            absent ++;
+        }
+        assertFalse(map.containsKey(absent));
+    }
+
+    @Test
+    public void wrapsAroundAtTheEndOfTheTable() {
+        int capacity = 32;
+        long[] keys = new long[3];
+        int found = 0;
+        for (long key = 0; found < keys.length; key++) {
+            if (slot(key, capacity) == capacity - 1) {
+                keys[found ++] = key;
+            }
+        }
+
+        LongLongHashMap map = new LongLongHashMap();
+        for (long key : keys) {
+            map.put(key, key);
+        }
+        for (long key : keys) {
+            assertEquals(key, map.get(key, MISSING));
+        }
+    }
+
+    @Test
+    public void growsBeyondTheExpectedSize() {
+        LongLongHashMap map = new LongLongHashMap(4);
+        int count = 10_000;
+        for (int i = 0; i < count; i++) {
+            map.put(i * 7919L, i);
+        }
+
+        assertEquals(count, map.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, map.get(i * 7919L, MISSING));
+        }
+        assertFalse(map.containsKey(-7919L));
+    }
+
+    @Test
+    public void keepsCollidingKeysWhenGrowing() {
+        int capacity = 32;
+        long[] keys = new long[20];
+        int found = 0;
+        for (long key = 0; found < keys.length; key++) {
+            if (slot(key, capacity) == 0) {
+                keys[found ++] = key;
+            }
+        }
+
+        // more keys than half the capacity, the map grows while the keys collide
+        LongLongHashMap map = new LongLongHashMap();
+        for (int i = 0; i < keys.length; i++) {
+            map.put(keys[i], i);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals(i, map.get(keys[i], MISSING));
+        }
+    }
+
+    @Test
+    public void clearRemovesAllKeys() {
+        LongLongHashMap map = new LongLongHashMap();
+        for (int i = 0; i < 100; i++) {
+            map.put(i, i);
+        }
+        map.clear();
+
+        assertEquals(0, map.size());
+        for (int i = 0; i < 100; i++) {
+            assertFalse(map.containsKey(i));
+        }
+        map.put(1, 2);
+        assertEquals(2, map.get(1, MISSING));
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MappedRecordFileTest {
+
+    private File dir;
+    private File file;
+    private File commitFile;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("recording").toFile();
+        file = new File(dir, "poses.csv");
+        commitFile = new File(dir, "poses.csv" + MappedRecordFile.COMMIT_SUFFIX);
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    private String read() throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    // the app is killed: the mapping is dropped without closing the file
+    private static void kill(MappedRecordFile recording) {
+    }
+
+    @Test
+    public void closeTruncatesToTheCommittedLength() throws IOException {
+        MappedRecordFile recording = new MappedRecordFile(file);
+        recording.write("1; a\n");
+        recording.write("2; b\n");
+        recording.close();
+
+        assertEquals("1; a\n2; b\n", read());
+        assertFalse(commitFile.exists());
+    }
+
+    @Test
+    public void recoverTruncatesAKilledRecordingToTheLastCommit() throws IOException {
+        MappedRecordFile recording = new MappedRecordFile(file);
+        recording.write("1; a\n");
+        recording.commit();
+        recording.write("2; b\n");
+        kill(recording);
+
+        // the whole preallocated segment reached the file
+        assertEquals(MappedRecordFile.DEFAULT_INITIAL_SEGMENT_SIZE, file.length());
+        assertTrue(commitFile.exists());
+
+        assertEquals(1, MappedRecordFile.recover(dir));
+
+        assertEquals("1; a\n", read());
+        assertFalse(commitFile.exists());
+    }
+
+    @Test
+    public void recoverDropsAPartialLastRecord() throws IOException {
+        MappedRecordFile recording = new MappedRecordFile(file);
+        recording.write("1; a\n2; b\n");
+        recording.commit();
+        // torn record, the app was killed while it was encoded
+        recording.write("3; ");
+        kill(recording);
+
+        assertTrue(MappedRecordFile.recoverFile(file));
+
+        assertEquals("1; a\n2; b\n", read());
+    }
+
+    @Test
+    public void recoverWithoutCommitTruncatesToZero() throws IOException {
+        MappedRecordFile recording = new MappedRecordFile(file);
+        recording.write("1; a\n");
+        kill(recording);
+
+        assertTrue(MappedRecordFile.recoverFile(file));
+
+        assertEquals(0, file.length());
+    }
+
+    @Test
+    public void recoverIgnoresClosedFiles() throws IOException {
+        MappedRecordFile recording = new MappedRecordFile(file);
+        recording.write("1; a\n");
+        recording.close();
+
+        assertFalse(MappedRecordFile.recoverFile(file));
+        assertEquals(0, MappedRecordFile.recover(dir));
+        assertEquals("1; a\n", read());
+    }
+
+    @Test
+    public void rollsOverIntoSegmentsOfDoubleSize() throws IOException {
+        MappedRecordFile recording = new MappedRecordFile(file, 16, 64);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            String line = i + "; record\n";
+            recording.write(line);
+            expected.append(line);
+        }
+        recording.commit();
+
+        // 16 + 32 + 64 + 64 + 64 bytes for the 210 bytes
+        assertEquals(expected.length(), recording.getBytesWritten());
+        assertEquals(5, recording.getSegmentCount());
+        recording.close();
+
+        assertEquals(expected.toString(), read());
+    }
+
+    @Test
+    public void recordsSpanSegmentBoundaries() throws IOException {
+        MappedRecordFile recording = new MappedRecordFile(file, 16, 16);
+        ByteBuffer bytes = ByteBuffer.allocate(40);
+        for (int i = 0; i < bytes.capacity(); i++) {
+            bytes.put((byte) ('a' + i % 26));
+        }
+        bytes.flip();
+        recording.write("0123456789");
+        recording.write(bytes);
+        // multi byte characters that do not fit into the rest of the segment
+        recording.write("\u00e4\u00f6\u00fc\n");
+        recording.commit();
+        kill(recording);
+
+        MappedRecordFile.recover(dir);
+
+        assertEquals("0123456789abcdefghijklmnopqrstuvwxyzabcdefghijklmn\u00e4\u00f6\u00fc\n", read());
+    }
+
+    @Test
+    public void recoversTheCommittedPartOfALaterSegment() throws IOException {
+        MappedRecordFile recording = new MappedRecordFile(file, 16, 64);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            String line = i + "; record\n";
+            recording.write(line);
+            expected.append(line);
+            recording.commit();
+        }
+        recording.write("10; rec");
+        // the committed records end within the third segment (or later)
+        assertTrue(recording.getSegmentCount() >= 3);
+        kill(recording);
+
+        MappedRecordFile.recover(dir);
+
+        assertEquals(expected.toString(), read());
+    }
+
+    @Test
+    public void rollbackDiscardsAFailedBatch() throws IOException {
+        MappedRecordFile recording = new MappedRecordFile(file, 16, 64);
+        recording.write("1; a\n");
+        recording.commit();
+        long length = recording.getBytesWritten();
+        // the failed batch reaches the next segments
+        recording.write("2; a record that does not fit into the segment");
+
+        recording.rollback(length);
+
+        recording.write("3; c\n");
+        recording.close();
+        assertEquals("1; a\n3; c\n", read());
+    }
+
+    @Test
+    public void rollbackWhileTrimmed() throws IOException {
+        MappedRecordFile recording = new MappedRecordFile(file);
+        recording.trim();
+        recording.write("1; a\n");
+        long length = recording.getBytesWritten();
+        recording.write("2; ");
+
+        recording.rollback(length);
+
+        recording.write("3; c\n");
+        recording.commit();
+        assertEquals("1; a\n3; c\n", read());
+        recording.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rollbackBeforeTheCommitIsRejected() throws IOException {
+        MappedRecordFile recording = new MappedRecordFile(file);
+        recording.write("1; a\n");
+        recording.commit();
+
+        recording.rollback(0);
+    }
+
+    @Test
+    public void trimRemovesTheReservedSpace() throws IOException {
+        MappedRecordFile recording = new MappedRecordFile(file);
+        recording.write("1; a\n");
+        recording.commit();
+        recording.write("2; ");
+
+        recording.trim();
+
+        // the uncommitted part is discarded
+        assertEquals("1; a\n", read());
+        assertEquals(5, recording.getBytesWritten());
+
+        recording.write("2; b\n");
+        assertEquals(5, file.length());
+        recording.commit();
+        assertEquals("1; a\n2; b\n", read());
+        kill(recording);
+
+        MappedRecordFile.recover(dir);
+
+        assertEquals("1; a\n2; b\n", read());
+    }
+
+    @Test
+    public void trimmedRecordingsAreWrittenOnceTheBufferIsFull() throws IOException {
+        MappedRecordFile recording = new MappedRecordFile(file);
+        recording.trim();
+        StringBuilder expected = new StringBuilder();
+        while (expected.length() < 200_000) {
+            String line = expected.length() + "; record\n";
+            recording.write(line);
+            expected.append(line);
+        }
+        recording.commit();
+
+        assertEquals(expected.length(), file.length());
+        recording.close();
+
+        assertEquals(expected.toString(), read());
+    }
+
+    @Test
+    public void preallocateContinuesAfterTheTrimmedRecords() throws IOException {
+        MappedRecordFile recording = new MappedRecordFile(file, 16, 64);
+        recording.write("1; a\n");
+        recording.commit();
+        recording.trim();
+        recording.write("2; b\n");
+
+        recording.preallocate();
+
+        assertEquals(10 + 16, file.length());
+        recording.write("3; c\n");
+        recording.commit();
+        kill(recording);
+
+        MappedRecordFile.recover(dir);
+
+        assertEquals("1; a\n2; b\n3; c\n", read());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** In-memory sink of the tests, keeps the written text and counts the commits. */
+class MemorySink implements RecordSink {
+
+    private final StringBuilder text = new StringBuilder();
+    private volatile int commitCount = 0;
+    private int committedLength = 0;
+    private boolean closed = false;
+
+    @Override
+    public void write(CharSequence text) {
+        this.text.append(text);
+    }
+
+    @Override
+    public void write(ByteBuffer bytes) {
+        while (bytes.hasRemaining()) {
+            text.append((char) (bytes.get() & 0xFF));
+        }
+    }
+
+    @Override
+    public void commit() {
+        commitCount ++;
+        committedLength = text.length();
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return text.length();
+    }
+
+    @Override
+    public void rollback(long length) {
+        text.setLength((int) length);
+    }
+
+    @Override
+    public void trim() {
+    }
+
+    @Override
+    public void preallocate() {
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    String getText() {
+        return text.toString();
+    }
+
+    /** Text up to the last commit. */
+    String getCommittedText() {
+        return text.substring(0, committedLength);
+    }
+
+    /** Written lines without line breaks. */
+    List<String> getLines() {
+        if (text.length() == 0) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(Arrays.asList(text.toString().split("\n")));
+    }
+
+    int getCommitCount() {
+        return commitCount;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+}
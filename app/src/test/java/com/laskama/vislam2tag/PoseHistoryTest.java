@@ -0,0 +1,169 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PoseHistoryTest {
+
+    private static final float EPS = 1e-5f;
+    private static final long MAX_GAP = 100;
+
+    private final float[] out = new float[PoseHistory.POSE_VALUES];
+
+    // pose with the rotation about the z axis by the given angle
+    private static float[] pose(float tx, float ty, float tz, double angleDegrees) {
+        double half = Math.toRadians(angleDegrees) / 2;
+        return new float[] {tx, ty, tz, 0, 0, (float) Math.sin(half), (float) Math.cos(half)};
+    }
+
+    private static void add(PoseHistory history, long timestamp, float[] pose) {
+        history.add(timestamp, pose[0], pose[1], pose[2], pose[3], pose[4], pose[5], pose[6]);
+    }
+
+    private float[] interpolate(PoseHistory history, long timestamp) {
+        assertTrue("no pose at " + timestamp, history.interpolate(timestamp, out));
+        return out.clone();
+    }
+
+    @Test
+    public void emptyHistoryHasNoPose() {
+        assertFalse(new PoseHistory(4, MAX_GAP).interpolate(0, out));
+    }
+
+    @Test
+    public void returnsTheStoredPosesAtTheSegmentEnds() {
+        PoseHistory history = new PoseHistory(8, MAX_GAP);
+        float[] a = pose(1, 2, 3, 0);
+        float[] b = pose(2, 4, 6, 30);
+        float[] c = pose(3, 6, 9, 60);
+        add(history, 100, a);
+        add(history, 150, b);
+        add(history, 200, c);
+
+        assertArrayEquals(a, interpolate(history, 100), EPS);
+        assertArrayEquals(b, interpolate(history, 150), EPS);
+        assertArrayEquals(c, interpolate(history, 200), EPS);
+    }
+
+    @Test
+    public void interpolatesTranslationLinearlyAndRotationBySlerp() {
+        PoseHistory history = new PoseHistory(8, MAX_GAP);
+        add(history, 100, pose(0, 0, 0, 0));
+        add(history, 200, pose(10, -20, 4, 90));
+
+        assertArrayEquals(pose(2.5f, -5, 1, 22.5), interpolate(history, 125), EPS);
+        assertArrayEquals(pose(5, -10, 2, 45), interpolate(history, 150), EPS);
+        assertArrayEquals(pose(7.5f, -15, 3, 67.5), interpolate(history, 175), EPS);
+    }
+
+    @Test
+    public void takesTheShorterPathIfTheQuaternionSignFlips() {
+        PoseHistory history = new PoseHistory(8, MAX_GAP);
+        float[] b = pose(0, 0, 0, 90);
+        // -q describes the same rotation as q
+        for (int i = 3; i < 7; i++) {
+            b[i] = -b[i];
+        }
+        add(history, 100, pose(0, 0, 0, 0));
+        add(history, 200, b);
+
+        // 45 degrees in the hemisphere of the first pose (not the long way round)
+        assertArrayEquals(pose(0, 0, 0, 45), interpolate(history, 150), EPS);
+    }
+
+    @Test
+    public void interpolatesNearlyIdenticalRotations() {
+        PoseHistory history = new PoseHistory(8, MAX_GAP);
+        add(history, 100, pose(0, 0, 0, 10));
+        add(history, 200, pose(0, 0, 0, 10.5));
+
+        float[] p = interpolate(history, 150);
+        assertArrayEquals(pose(0, 0, 0, 10.25), p, EPS);
+        float norm = p[3] * p[3] + p[4] * p[4] + p[5] * p[5] + p[6] * p[6];
+        assertEquals(1, norm, EPS);
+    }
+
+    @Test
+    public void holdsTheOutermostPosesWithinTheMaxGap() {
+        PoseHistory history = new PoseHistory(8, MAX_GAP);
+        float[] first = pose(1, 1, 1, 0);
+        float[] last = pose(2, 2, 2, 20);
+        add(history, 1000, first);
+        add(history, 1050, last);
+
+        assertArrayEquals(first, interpolate(history, 1000 - MAX_GAP), EPS);
+        assertArrayEquals(last, interpolate(history, 1050 + MAX_GAP), EPS);
+        assertFalse(history.interpolate(1000 - MAX_GAP - 1, out));
+        assertFalse(history.interpolate(1050 + MAX_GAP + 1, out));
+    }
+
+    @Test
+    public void failsWithinGapsLargerThanTheMaxGap() {
+        PoseHistory history = new PoseHistory(8, MAX_GAP);
+        add(history, 0, pose(0, 0, 0, 0));
+        add(history, 50, pose(1, 0, 0, 0));
+        // tracking was lost in between
+        add(history, 50 + MAX_GAP + 1, pose(2, 0, 0, 0));
+
+        assertEquals(0.5f, interpolate(history, 25)[0], EPS);
+        float[] before = out.clone();
+        assertFalse(history.interpolate(100, out));
+        assertArrayEquals(before, out, 0);
+    }
+
+    @Test
+    public void ignoresPosesThatAreNotNewer() {
+        PoseHistory history = new PoseHistory(8, MAX_GAP);
+        add(history, 100, pose(0, 0, 0, 0));
+        add(history, 200, pose(10, 0, 0, 0));
+        add(history, 150, pose(100, 0, 0, 0));
+        add(history, 200, pose(100, 0, 0, 0));
+
+        assertEquals(2, history.size());
+        assertEquals(5, interpolate(history, 150)[0], EPS);
+    }
+
+    @Test
+    public void searchesAcrossTheWrapAroundOfTheRing() {
+        PoseHistory history = new PoseHistory(5, MAX_GAP);
+        for (int i = 0; i < 13; i++) {
+            add(history, i * 10, pose(i, 0, 0, 0));
+        }
+        // poses 8..12 are kept
+        assertEquals(5, history.size());
+        assertFalse(history.interpolate(80 - MAX_GAP - 1, out));
+        assertArrayEquals(pose(8, 0, 0, 0), interpolate(history, 75), EPS);
+        for (int t = 80; t <= 120; t += 5) {
+            assertEquals(t / 10f, interpolate(history, t)[0], EPS);
+        }
+    }
+
+    @Test
+    public void clearRemovesAllPoses() {
+        PoseHistory history = new PoseHistory(4, MAX_GAP);
+        add(history, 100, pose(0, 0, 0, 0));
+        history.clear();
+        assertEquals(0, history.size());
+        assertFalse(history.interpolate(100, out));
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScanDeduplicatorTest {
+
+    private static final String AP1 = "00:11:22:33:44:55";
+    private static final String AP2 = "66:77:88:99:aa:bb";
+
+    @Test
+    public void dropsAccessPointsThatWereNotMeasuredAgain() {
+        ScanDeduplicator deduplicator = new ScanDeduplicator();
+        deduplicator.beginScan();
+        assertTrue(deduplicator.accept(AP1, 1000));
+        assertTrue(deduplicator.accept(AP2, 1000));
+
+        // cached scan: AP1 was not measured again, AP2 was
+        deduplicator.beginScan();
+        assertFalse(deduplicator.accept(AP1, 1000));
+        assertTrue(deduplicator.accept(AP2, 2000));
+        assertEquals(1, deduplicator.getFreshCount());
+        assertEquals(1, deduplicator.getStaleCount());
+    }
+
+    @Test
+    public void comparesWithTheLastAcceptedTimestampOnly() {
+        ScanDeduplicator deduplicator = new ScanDeduplicator();
+        deduplicator.beginScan();
+        assertTrue(deduplicator.accept(AP1, 1000));
+        deduplicator.beginScan();
+        assertTrue(deduplicator.accept(AP1, 2000));
+
+        // the older timestamp was replaced, hence it is not considered stale anymore
+        deduplicator.beginScan();
+        assertTrue(deduplicator.accept(AP1, 1000));
+        deduplicator.beginScan();
+        assertFalse(deduplicator.accept(AP1, 1000));
+    }
+
+    @Test
+    public void doesNotDependOnTheCaseOfTheBssid() {
+        ScanDeduplicator deduplicator = new ScanDeduplicator();
+        deduplicator.beginScan();
+        assertTrue(deduplicator.accept(AP2, 1000));
+        assertFalse(deduplicator.accept(AP2.toUpperCase(), 1000));
+    }
+
+    @Test
+    public void alwaysAcceptsBssidsThatAreNotMacAddresses() {
+        ScanDeduplicator deduplicator = new ScanDeduplicator();
+        deduplicator.beginScan();
+        assertTrue(deduplicator.accept("any", 1000));
+        assertTrue(deduplicator.accept("any", 1000));
+        assertTrue(deduplicator.accept(null, 1000));
+        assertEquals(3, deduplicator.getFreshCount());
+        assertEquals(0, deduplicator.getStaleCount());
+    }
+
+    @Test
+    public void countsPerScanAndInTotal() {
+        ScanDeduplicator deduplicator = new ScanDeduplicator();
+        deduplicator.beginScan();
+        deduplicator.accept(AP1, 1000);
+        deduplicator.accept(AP2, 1000);
+        for (int scan = 0; scan < 3; scan++) {
+            deduplicator.beginScan();
+            assertEquals(0, deduplicator.getFreshCount());
+            assertEquals(0, deduplicator.getStaleCount());
+            deduplicator.accept(AP1, 1000);
+            deduplicator.accept(AP2, 1000);
+            assertEquals(2, deduplicator.getStaleCount());
+        }
+        assertEquals(6, deduplicator.getStaleTotal());
+    }
+
+    @Test
+    public void clearForgetsAllAccessPoints() {
+        ScanDeduplicator deduplicator = new ScanDeduplicator();
+        deduplicator.beginScan();
+        deduplicator.accept(AP1, 1000);
+        deduplicator.clear();
+
+        deduplicator.beginScan();
+        assertTrue(deduplicator.accept(AP1, 1000));
+    }
+
+    @Test
+    public void tracksMoreAccessPointsThanTheInitialCapacity() {
+        ScanDeduplicator deduplicator = new ScanDeduplicator();
+        int count = 5000;
+        deduplicator.beginScan();
+        for (int i = 0; i < count; i++) {
+            assertTrue(deduplicator.accept(WifiRecordFormat.formatBssid(i), i));
+        }
+        deduplicator.beginScan();
+        for (int i = 0; i < count; i++) {
+            assertFalse(deduplicator.accept(WifiRecordFormat.formatBssid(i), i));
+        }
+        assertEquals(count, deduplicator.getStaleCount());
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ScanSchedulerTest {
+
+    private static final long MS = 1_000_000L;
+    private static final long MIN_INTERVAL = 1000 * MS;
+    private static final long INITIAL_BACKOFF = 2000 * MS;
+    private static final long MAX_BACKOFF = 60_000 * MS;
+    private static final long TIMEOUT = 10_000 * MS;
+
+    /** Clock and timer whose time only advances on request, runs due tasks in time order. */
+    private static class FakeTime implements ScanScheduler.Clock, ScanScheduler.Timer {
+
+        private static class Task {
+            final Runnable runnable;
+            final long due;
+
+            Task(Runnable runnable, long due) {
+                this.runnable = runnable;
+                this.due = due;
+            }
+        }
+
+        final List<Task> tasks = new ArrayList<>();
+        long now = 0;
+
+        @Override
+        public long now() {
+            return now;
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            tasks.add(new Task(task, now + delayMillis * MS));
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            tasks.removeIf(t -> t.runnable == task);
+        }
+
+        void advance(long nanos) {
+            long end = now + nanos;
+            while (true) {
+                Task next = null;
+                for (Task t : tasks) {
+                    if (t.due <= end && (next == null || t.due < next.due)) {
+                        next = t;
+                    }
+                }
+                if (next == null) {
+                    break;
+                }
+                tasks.remove(next);
+                now = next.due;
+                next.runnable.run();
+            }
+            now = end;
+        }
+    }
+
+    private FakeTime time;
+    private int requests;
+    private boolean rejectRequests;
+    private ScanScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        time = new FakeTime();
+        requests = 0;
+        rejectRequests = false;
+        scheduler = new ScanScheduler(time, () -> {
+            requests ++;
+            return !rejectRequests;
+        }, time, MIN_INTERVAL, INITIAL_BACKOFF, MAX_BACKOFF, TIMEOUT);
+    }
+
+    @Test
+    public void startRequestsAScan() {
+        scheduler.start();
+        assertEquals(1, requests);
+        assertEquals(ScanScheduler.State.SCANNING, scheduler.getState());
+    }
+
+    @Test
+    public void classifiesFreshAndCachedResults() {
+        scheduler.start();
+        time.advance(500 * MS);
+        assertEquals(ScanScheduler.ScanKind.FRESH, scheduler.onScanResults(100));
+        assertEquals(500 * MS, scheduler.getLastLatencyNanos());
+
+        // same newest access point timestamp: the previous results were delivered again
+        time.advance(MIN_INTERVAL);
+        assertEquals(2, requests);
+        assertEquals(ScanScheduler.ScanKind.CACHED, scheduler.onScanResults(100));
+        assertEquals(-1, scheduler.getLastLatencyNanos());
+
+        time.advance(INITIAL_BACKOFF);
+        assertEquals(3, requests);
+        assertEquals(ScanScheduler.ScanKind.CACHED, scheduler.onScanResults(99));
+        time.advance(2 * INITIAL_BACKOFF);
+        assertEquals(ScanScheduler.ScanKind.FRESH, scheduler.onScanResults(101));
+
+        assertEquals(2, scheduler.getFreshCount());
+        assertEquals(2, scheduler.getCachedCount());
+        assertEquals(2, scheduler.getLatency().getCount());
+    }
+
+    @Test
+    public void requestsTheNextScanAfterTheMinimumInterval() {
+        scheduler.start();
+        time.advance(300 * MS);
+        scheduler.onScanResults(1);
+
+        time.advance(MIN_INTERVAL - 300 * MS - MS);
+        assertEquals(1, requests);
+        time.advance(MS);
+        assertEquals(2, requests);
+        assertEquals(0, scheduler.getBackoffNanos());
+    }
+
+    @Test
+    public void doublesTheBackoffUpToTheMaximum() {
+        rejectRequests = true;
+        scheduler.start();
+        assertEquals(1, requests);
+        assertEquals(INITIAL_BACKOFF, scheduler.getBackoffNanos());
+
+        long expected = INITIAL_BACKOFF;
+        for (int i = 2; i < 10; i++) {
+            time.advance(expected - MS);
+            assertEquals(i - 1, requests);
+            time.advance(MS);
+            assertEquals(i, requests);
+            expected = Math.min(expected * 2, MAX_BACKOFF);
+            assertEquals(expected, scheduler.getBackoffNanos());
+        }
+        assertEquals(MAX_BACKOFF, scheduler.getBackoffNanos());
+        assertEquals(9, scheduler.getRejectedCount());
+    }
+
+    @Test
+    public void backsOffAfterFailedScans() {
+        scheduler.start();
+        scheduler.onScanFailed();
+        assertEquals(INITIAL_BACKOFF, scheduler.getBackoffNanos());
+        assertEquals(ScanScheduler.State.WAITING, scheduler.getState());
+
+        time.advance(INITIAL_BACKOFF);
+        assertEquals(2, requests);
+        scheduler.onScanFailed();
+        assertEquals(2 * INITIAL_BACKOFF, scheduler.getBackoffNanos());
+        assertEquals(2, scheduler.getFailedCount());
+    }
+
+    @Test
+    public void resetsTheBackoffAfterAFreshScan() {
+        rejectRequests = true;
+        scheduler.start();
+        time.advance(INITIAL_BACKOFF);
+        time.advance(2 * INITIAL_BACKOFF);
+        assertEquals(3, requests);
+        assertEquals(4 * INITIAL_BACKOFF, scheduler.getBackoffNanos());
+
+        rejectRequests = false;
+        time.advance(4 * INITIAL_BACKOFF);
+        assertEquals(4, requests);
+        time.advance(200 * MS);
+        assertEquals(ScanScheduler.ScanKind.FRESH, scheduler.onScanResults(1));
+        assertEquals(0, scheduler.getBackoffNanos());
+
+        // the next request only waits for the minimum interval again
+        time.advance(MIN_INTERVAL - 200 * MS);
+        assertEquals(5, requests);
+    }
+
+    @Test
+    public void countsATimeoutAsUnsuccessful() {
+        scheduler.start();
+        time.advance(TIMEOUT - MS);
+        assertEquals(0, scheduler.getTimeoutCount());
+        assertEquals(ScanScheduler.State.SCANNING, scheduler.getState());
+
+        time.advance(MS);
+        assertEquals(1, scheduler.getTimeoutCount());
+        assertEquals(INITIAL_BACKOFF, scheduler.getBackoffNanos());
+        assertEquals(ScanScheduler.State.WAITING, scheduler.getState());
+
+        time.advance(INITIAL_BACKOFF);
+        assertEquals(2, requests);
+        assertEquals(ScanScheduler.State.SCANNING, scheduler.getState());
+    }
+
+    @Test
+    public void resultsCancelTheTimeout() {
+        scheduler.start();
+        time.advance(500 * MS);
+        scheduler.onScanResults(1);
+        // beyond the timeout of the first request, before the one of the next request
+        time.advance(TIMEOUT);
+        assertEquals(2, requests);
+        assertEquals(0, scheduler.getTimeoutCount());
+    }
+
+    @Test
+    public void ignoresResultsThatWereNotRequested() {
+        scheduler.start();
+        time.advance(500 * MS);
+        scheduler.onScanResults(1);
+        assertEquals(ScanScheduler.State.WAITING, scheduler.getState());
+
+        // results requested by another app while waiting: classified, but the schedule is kept
+        time.advance(100 * MS);
+        assertEquals(ScanScheduler.ScanKind.FRESH, scheduler.onScanResults(2));
+        assertEquals(-1, scheduler.getLastLatencyNanos());
+        assertEquals(ScanScheduler.ScanKind.CACHED, scheduler.onScanResults(2));
+        assertEquals(0, scheduler.getBackoffNanos());
+        assertEquals(1, scheduler.getLatency().getCount());
+
+        time.advance(MIN_INTERVAL - 600 * MS);
+        assertEquals(2, requests);
+        assertEquals(ScanScheduler.State.SCANNING, scheduler.getState());
+    }
+
+    @Test
+    public void ignoresFailuresThatWereNotRequested() {
+        scheduler.start();
+        time.advance(500 * MS);
+        scheduler.onScanResults(1);
+        scheduler.onScanFailed();
+        assertEquals(0, scheduler.getBackoffNanos());
+        assertEquals(1, time.tasks.size());
+    }
+
+    @Test
+    public void stopCancelsAllRequests() {
+        scheduler.start();
+        scheduler.stop();
+        assertEquals(ScanScheduler.State.STOPPED, scheduler.getState());
+        assertTrue(time.tasks.isEmpty());
+
+        time.advance(10 * TIMEOUT);
+        assertEquals(1, requests);
+        assertEquals(0, scheduler.getTimeoutCount());
+    }
+
+    @Test
+    public void computesTheFreshScanRate() {
+        scheduler.start();
+        for (int i = 0; i < 4; i++) {
+            time.advance(MIN_INTERVAL);
+            scheduler.onScanResults(i + 1);
+        }
+        // four fresh scans within three seconds
+        assertEquals(60.0, scheduler.getFreshRatePerMinute(), 1e-9);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class SensorBatchLatencyTest {
+
+    private static final long MS = 1_000_000L;
+    private static final long GAP = MS;
+
+    @Test
+    public void measuresEachEventWithoutBatching() {
+        SensorBatchLatency latency = new SensorBatchLatency(GAP);
+        // 100 Hz, each event delivered 2 ms after its timestamp
+        for (int i = 0; i < 10; i++) {
+            latency.add(i * 10 * MS, i * 10 * MS + 2 * MS);
+        }
+        latency.finish();
+
+        assertEquals(10, latency.getEventCount());
+        assertEquals(10, latency.getStats().getCount());
+        assertEquals(2000.0, latency.getStats().getMinMicros(), 1e-9);
+        assertEquals(2000.0, latency.getStats().getMaxMicros(), 1e-9);
+    }
+
+    @Test
+    public void excludesTheFifoDelayOfBatchedEvents() {
+        SensorBatchLatency latency = new SensorBatchLatency(GAP);
+        // two batches of 50 events sampled at 100 Hz, delivered 500 ms after the first event
+        for (int batch = 0; batch < 2; batch++) {
+            long start = batch * 500 * MS;
+            long delivery = start + 500 * MS + 3 * MS;
+            for (int i = 0; i < 50; i++) {
+                latency.add(start + i * 10 * MS, delivery + i * 10_000L);
+            }
+        }
+
+        // the second batch is only recorded once no further events follow
+        assertEquals(1, latency.getStats().getCount());
+        latency.finish();
+
+        assertEquals(100, latency.getEventCount());
+        assertEquals(2, latency.getStats().getCount());
+        // newest event at start + 490 ms, last callback at start + 503 ms + 490 us
+        assertEquals(13_490.0, latency.getStats().getMaxMicros(), 1e-9);
+        assertEquals(13_490.0, latency.getStats().getMinMicros(), 1e-9);
+    }
+
+    @Test
+    public void startsANewBatchAfterTheGap() {
+        SensorBatchLatency latency = new SensorBatchLatency(GAP);
+        latency.add(0, 5 * MS);
+        latency.add(MS, 5 * MS + GAP);
+        latency.add(2 * MS, 5 * MS + 2 * GAP + 1);
+        latency.finish();
+
+        assertEquals(3, latency.getEventCount());
+        assertEquals(2, latency.getStats().getCount());
+        assertEquals(5 * MS + GAP - MS, latency.getStats().getMinMicros() * 1000, 1e-6);
+        assertEquals(5 * MS + 2 * GAP + 1 - 2 * MS, latency.getStats().getMaxMicros() * 1000, 1e-6);
+    }
+
+    @Test
+    public void finishWithoutEventsRecordsNothing() {
+        SensorBatchLatency latency = new SensorBatchLatency(GAP);
+        latency.finish();
+        latency.add(0, MS);
+        latency.finish();
+        latency.finish();
+
+        assertEquals(1, latency.getEventCount());
+        assertEquals(1, latency.getStats().getCount());
+    }
+}
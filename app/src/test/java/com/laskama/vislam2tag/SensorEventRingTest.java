@@ -0,0 +1,264 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SensorEventRingTest {
+
+    private static final float[] VALUES = {1.f, 2.f, 3.f};
+
+    /** Collects the drained events, preallocated such that draining does not allocate. */
+    private static class Collector implements SensorEventRing.Consumer {
+        final long[] timestamps;
+        final int[] types;
+        final float[] firstValues;
+        int count = 0;
+
+        Collector(int capacity) {
+            timestamps = new long[capacity];
+            types = new int[capacity];
+            firstValues = new float[capacity];
+        }
+
+        @Override
+        public void accept(long timestamp, int sensorType, float[] values, int offset) {
+            timestamps[count] = timestamp;
+            types[count] = sensorType;
+            firstValues[count] = values[offset];
+            count ++;
+        }
+
+        void drainAll(SensorEventRing ring) throws IOException {
+            while (ring.drain(this) > 0) {
+                // next batch
+            }
+        }
+    }
+
+    @Test
+    public void capacityIsRoundedUpToAPowerOfTwo() {
+        assertEquals(8, new SensorEventRing(5, SensorEventRing.OverflowPolicy.BLOCK).getCapacity());
+        assertEquals(8, new SensorEventRing(8, SensorEventRing.OverflowPolicy.BLOCK).getCapacity());
+    }
+
+    @Test
+    public void drainsEventsInOfferOrder() throws IOException {
+        SensorEventRing ring = new SensorEventRing(16, SensorEventRing.OverflowPolicy.COUNT_AND_DROP);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(ring.offer(100 + i, i % 3, new float[] {i, -i}));
+        }
+        assertEquals(10, ring.size());
+
+        Collector collector = new Collector(16);
+        collector.drainAll(ring);
+        assertEquals(10, collector.count);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(100 + i, collector.timestamps[i]);
+            assertEquals(i % 3, collector.types[i]);
+            assertEquals(i, collector.firstValues[i], 0.f);
+        }
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    public void padsAndTruncatesValues() throws IOException {
+        SensorEventRing ring = new SensorEventRing(4, SensorEventRing.OverflowPolicy.BLOCK);
+        float[] tooMany = new float[SensorEventRing.VALUES_PER_EVENT + 2];
+        for (int i = 0; i < tooMany.length; i++) {
+            tooMany[i] = i + 1;
+        }
+        ring.offer(1, 0, tooMany);
+        ring.offer(2, 0, new float[] {7.f});
+
+        float[][] drained = new float[2][];
+        int[] count = {0};
+        ring.drain((timestamp, sensorType, values, offset) -> {
+            float[] copy = new float[SensorEventRing.VALUES_PER_EVENT];
+            System.arraycopy(values, offset, copy, 0, copy.length);
+            drained[count[0] ++] = copy;
+        });
+
+        assertEquals(2, count[0]);
+        for (int i = 0; i < SensorEventRing.VALUES_PER_EVENT; i++) {
+            assertEquals(i + 1, drained[0][i], 0.f);
+            assertEquals(i == 0 ? 7.f : 0.f, drained[1][i], 0.f);
+        }
+    }
+
+    @Test
+    public void keepsOrderAcrossWraparound() throws IOException {
+        SensorEventRing ring = new SensorEventRing(8, SensorEventRing.OverflowPolicy.COUNT_AND_DROP);
+        Collector collector = new Collector(1000);
+        long next = 0;
+        // offer and drain in steps that are not aligned to the capacity
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < 5; i++) {
+                assertTrue(ring.offer(next, 0, new float[] {next}));
+                next ++;
+            }
+            collector.drainAll(ring);
+        }
+
+        assertEquals(500, collector.count);
+        for (int i = 0; i < collector.count; i++) {
+            assertEquals(i, collector.timestamps[i]);
+            assertEquals(i, collector.firstValues[i], 0.f);
+        }
+    }
+
+    @Test
+    public void countAndDropDiscardsNewEvents() throws IOException {
+        SensorEventRing ring = new SensorEventRing(4, SensorEventRing.OverflowPolicy.COUNT_AND_DROP);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i, 0, VALUES));
+        }
+        assertFalse(ring.offer(4, 0, VALUES));
+        assertFalse(ring.offer(5, 0, VALUES));
+        assertEquals(6, ring.getOfferedCount());
+        assertEquals(2, ring.getDroppedCount());
+        assertEquals(0, ring.getOverwrittenCount());
+
+        Collector collector = new Collector(8);
+        collector.drainAll(ring);
+        assertEquals(4, collector.count);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, collector.timestamps[i]);
+        }
+    }
+
+    @Test
+    public void dropOldestOverwritesOldestEvents() throws IOException {
+        SensorEventRing ring = new SensorEventRing(4, SensorEventRing.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(ring.offer(i, 0, VALUES));
+        }
+        assertEquals(2, ring.getOverwrittenCount());
+        assertEquals(0, ring.getDroppedCount());
+        assertEquals(4, ring.size());
+
+        Collector collector = new Collector(8);
+        collector.drainAll(ring);
+        assertEquals(4, collector.count);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i + 2, collector.timestamps[i]);
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void dropOldestWithConcurrentDrainer() throws Exception {
+        final int events = 500_000;
+        SensorEventRing ring = new SensorEventRing(16, SensorEventRing.OverflowPolicy.DROP_OLDEST);
+        Collector collector = new Collector(events);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicBoolean producing = new AtomicBoolean(true);
+
+        // the drainer claims batches while the producer claims the oldest slot of the full ring,
+        // every event must either be drained exactly once (with consistent values) or be counted
+        Thread drainer = new Thread(() -> {
+            try {
+                while (true) {
+                    boolean finished = !producing.get();
+                    if (ring.drain(collector) == 0 && finished) {
+                        return;
+                    }
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+        ring.setConsumerThread(drainer);
+        drainer.start();
+
+        float[] values = new float[3];
+        for (int i = 0; i < events; i++) {
+            values[0] = i;
+            assertTrue(ring.offer(i, i & 0xFF, values));
+            if ((i & 63) == 0) {
+                // let the drainer catch up from time to time, both paths have to be exercised
+                Thread.yield();
+            }
+        }
+        producing.set(false);
+        drainer.join();
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(events, ring.getOfferedCount());
+        assertTrue(ring.getOverwrittenCount() > 0);
+        assertEquals(events, collector.count + ring.getOverwrittenCount());
+        long previous = -1;
+        for (int i = 0; i < collector.count; i++) {
+            long timestamp = collector.timestamps[i];
+            assertTrue("out of order at " + i, timestamp > previous);
+            assertEquals(timestamp & 0xFF, collector.types[i]);
+            assertEquals((float) timestamp, collector.firstValues[i], 0.f);
+            previous = timestamp;
+        }
+    }
+
+    @Test
+    public void offerAndDrainDoNotAllocate() throws IOException {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        SensorEventRing ring = new SensorEventRing(1024, SensorEventRing.OverflowPolicy.DROP_OLDEST);
+        Collector collector = new Collector(1024);
+        float[] values = new float[3];
+        long threadId = Thread.currentThread().getId();
+
+        // warm up (class loading, compilation)
+        offerAndDrain(ring, collector, values, 20_000);
+
+        final int events = 200_000;
+        long before = threads.getThreadAllocatedBytes(threadId);
+        offerAndDrain(ring, collector, values, events);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        // a single object per event would be several MB, allow some bytes for the measurement
+        assertTrue("allocated " + allocated + " bytes for " + events + " events", allocated < 4096);
+    }
+
+    private static void offerAndDrain(SensorEventRing ring, Collector collector, float[] values, int events)
+            throws IOException {
+        for (int i = 0; i < events; i++) {
+            values[0] = i;
+            ring.offer(i, 1, values);
+            if ((i & 511) == 511) {
+                collector.count = 0;
+                collector.drainAll(ring);
+            }
+        }
+        collector.count = 0;
+        collector.drainAll(ring);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trip of IMU events through {@link SensorRecordWriter}, {@link SensorRecordReader} and
+ * {@link SensorCsvConverter}, compared with the lines the app wrote to sensors.csv before.
+ */
+public class SensorRecordTest {
+
+    // former sensors.csv line, unused values are written as 0
+    private static String legacyLine(long timestamp, String label, float... values) {
+        float[] v = Arrays.copyOf(values, SensorRecordFormat.CSV_VALUE_COLUMNS);
+        return String.format(Locale.ROOT, "%d; %s; %f; %f; %f; %f; %f; %f\n",
+                timestamp, label, v[0], v[1], v[2], v[3], v[4], v[5]);
+    }
+
+    private static SensorRecordReader read(byte[] bytes) throws IOException {
+        return new SensorRecordReader(Channels.newChannel(new ByteArrayInputStream(bytes)));
+    }
+
+    private static SensorRecordReader read(MemorySink sink) throws IOException {
+        return read(sink.getText().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void convertsToTheFormerCsvLines() throws IOException {
+        File dir = Files.createTempDirectory("sensors").toFile();
+        File binFile = new File(dir, "sensors.bin");
+        File csvFile = new File(dir, "sensors.csv");
+        try {
+            SensorRecordWriter writer = new SensorRecordWriter(new MappedRecordFile(binFile));
+            writer.append(1000, SensorRecordFormat.TYPE_ACCELEROMETER, new float[] {0.12345675f, -9.81f, 0});
+            writer.append(1001, SensorRecordFormat.TYPE_GYROSCOPE_UNCALIBRATED,
+                    new float[] {-0.0000001f, -0.0f, 1e-7f, 0.5f, -0.25f, 3});
+            writer.append(1002, SensorRecordFormat.TYPE_MAGNETIC_FIELD, new float[] {-1234.5678f, 48.1f, 17});
+            // some devices report the rotation vector without accuracy
+            writer.append(1003, SensorRecordFormat.TYPE_ROTATION_VECTOR, new float[] {0.1f, 0.2f, 0.3f});
+            writer.append(1004, SensorRecordFormat.TYPE_GAME_ROTATION_VECTOR, new float[] {0.1f, -0.2f, 0.3f, 0.9f});
+            writer.close();
+
+            assertEquals(5, SensorCsvConverter.convert(binFile, csvFile));
+
+            List<String> expected = Arrays.asList(
+                    legacyLine(1000, "ACC", 0.12345675f, -9.81f, 0),
+                    legacyLine(1001, "GYRO_UN", -0.0000001f, -0.0f, 1e-7f, 0.5f, -0.25f, 3),
+                    legacyLine(1002, "MAG", -1234.5678f, 48.1f, 17),
+                    legacyLine(1003, "ROT", 0.1f, 0.2f, 0.3f, 0),
+                    legacyLine(1004, "GAME_ROT", 0.1f, -0.2f, 0.3f, 0.9f));
+            List<String> lines = new ArrayList<>();
+            for (String line : Files.readAllLines(csvFile.toPath(), StandardCharsets.UTF_8)) {
+                lines.add(line + "\n");
+            }
+            assertEquals(expected, lines);
+        } finally {
+            binFile.delete();
+            csvFile.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void csvValuesMatchStringFormat() throws IOException {
+        Random random = new Random(42);
+        MemorySink sink = new MemorySink();
+        SensorRecordWriter writer = new SensorRecordWriter(sink);
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            // accelerometer, gyroscope and magnetometer ranges
+            float scale = (float) Math.pow(10, random.nextInt(6) - 3);
+            float[] values = new float[6];
+            for (int j = 0; j < values.length; j++) {
+                values[j] = (float) random.nextGaussian() * scale;
+            }
+            writer.append(i, SensorRecordFormat.TYPE_GYROSCOPE_UNCALIBRATED, values);
+            expected.add(legacyLine(i, "GYRO_UN", values));
+        }
+        writer.flush();
+
+        List<String> lines = new ArrayList<>();
+        StringBuilder line = new StringBuilder();
+        try (SensorRecordReader reader = read(sink)) {
+            while (reader.next()) {
+                line.setLength(0);
+                SensorCsvConverter.appendCsvLine(reader, line);
+                lines.add(line.toString());
+            }
+        }
+        assertEquals(expected, lines);
+    }
+
+    @Test
+    public void skipsEventsOfOtherSensorTypes() throws IOException {
+        MemorySink sink = new MemorySink();
+        SensorRecordWriter writer = new SensorRecordWriter(sink);
+
+        // Sensor.TYPE_LIGHT
+        assertFalse(writer.append(1, 5, new float[] {100}));
+        assertTrue(writer.append(2, SensorRecordFormat.TYPE_GYROSCOPE, new float[] {1, 2, 3}));
+        writer.flush();
+
+        assertEquals(1, writer.getRecordCount());
+        try (SensorRecordReader reader = read(sink)) {
+            assertTrue(reader.next());
+            assertEquals(2, reader.getTimestamp());
+            assertEquals("GYRO", reader.getLabel());
+            assertEquals(SensorRecordFormat.TYPE_GYROSCOPE, reader.getSensorType());
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    public void ignoresATornLastRecord() throws IOException {
+        MemorySink sink = new MemorySink();
+        SensorRecordWriter writer = new SensorRecordWriter(sink);
+        writer.append(1, SensorRecordFormat.TYPE_ACCELEROMETER, new float[] {1, 2, 3});
+        writer.append(2, SensorRecordFormat.TYPE_ACCELEROMETER, new float[] {4, 5, 6});
+        writer.flush();
+        byte[] bytes = sink.getText().getBytes(StandardCharsets.ISO_8859_1);
+
+        try (SensorRecordReader reader = read(Arrays.copyOf(bytes, bytes.length - 5))) {
+            assertTrue(reader.next());
+            assertEquals(1, reader.getTimestamp());
+            assertFalse(reader.next());
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class SessionMergerTest {
+
+    private File sessionDir;
+
+    @Before
+    public void setUp() throws IOException {
+        sessionDir = Files.createTempDirectory("session").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = sessionDir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        sessionDir.delete();
+    }
+
+    private void write(String fileName, String... lines) throws IOException {
+        try (Writer writer = new FileWriter(new File(sessionDir, fileName))) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+    }
+
+    private List<String> readMerged() throws IOException {
+        return Files.readAllLines(new File(sessionDir, SessionMerger.MERGED_FILE).toPath(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void mergesTheCsvStreamsOfASession() throws IOException {
+        // poses.csv: timestamp in the first column, refMarker.csv and scans.csv in the second
+        write("poses.csv", "10; p1", "30; p2", "50; p3");
+        write("refMarker.csv", "m; 20; r1", "m; 60; r2");
+        write("scans.csv", "scan; timestamp; kind", "0; 40; FRESH");
+
+        List<String> stats = SessionMerger.merge(sessionDir);
+
+        assertEquals(Arrays.asList("10; POSES; 10; p1", "20; REF_MARKER; m; 20; r1", "30; POSES; 30; p2",
+                "40; SCANS; 0; 40; FRESH", "50; POSES; 50; p3", "60; REF_MARKER; m; 60; r2"), readMerged());
+        assertEquals(Arrays.asList("stream; offered; late; max_lateness_ns\n", "POSES; 3; 0; 0\n",
+                "REF_MARKER; 2; 0; 0\n", "SCANS; 1; 0; 0\n"), stats);
+        assertFalse(new File(sessionDir, SessionMerger.MERGED_FILE + MappedRecordFile.COMMIT_SUFFIX).exists());
+    }
+
+    @Test
+    public void readsWlanScansFromWifiBin() throws IOException {
+        WifiRecordWriter writer = new WifiRecordWriter();
+        writer.beginScan(0, 20, 20);
+        writer.addAccessPoint("0a:1b:2c:3d:4e:5f", "home", -40, 2412, 0, 2412, 0, false, 15);
+        writer.endScan();
+        ByteBuffer bytes = writer.takeBytes();
+        try (OutputStream outputStream = new FileOutputStream(new File(sessionDir, "wifi.bin"))) {
+            outputStream.write(bytes.array(), 0, bytes.limit());
+        }
+        // wifi.bin timestamps are in microseconds
+        write("poses.csv", "10000; p1", "20000; p2");
+
+        SessionMerger.merge(sessionDir);
+
+        assertEquals(Arrays.asList("10000; POSES; 10000; p1",
+                "15000; WIFI; 0; 15; WLAN; home; 0a:1b:2c:3d:4e:5f; -40; 15000; 2412; 0; 2412; 0; 0; 5",
+                "20000; POSES; 20000; p2"), readMerged());
+    }
+
+    @Test
+    public void recoversTheFilesOfAKilledSession() throws IOException {
+        MappedRecordFile poses = new MappedRecordFile(new File(sessionDir, "poses.csv"));
+        poses.write("10; p1\n");
+        poses.commit();
+        poses.write("30; p");
+        SensorRecordWriter sensors = new SensorRecordWriter(new MappedRecordFile(new File(sessionDir, "sensors.bin")));
+        sensors.append(20, SensorRecordFormat.TYPE_ACCELEROMETER, new float[] {1, 2, 3});
+        sensors.flush();
+        // the app is killed, both files end with the zero padding of their preallocated segment
+
+        SessionMerger.merge(sessionDir);
+
+        assertEquals(Arrays.asList("10; POSES; 10; p1",
+                "20; SENSORS; 20; ACC; 1.000000; 2.000000; 3.000000; 0.000000; 0.000000; 0.000000"), readMerged());
+        assertFalse(new File(sessionDir, "poses.csv" + MappedRecordFile.COMMIT_SUFFIX).exists());
+    }
+
+    @Test
+    public void reordersRecordsOfAStream() throws IOException {
+        write("poses.csv", "30; p3", "10; p1", "20; p2");
+
+        SessionMerger.merge(sessionDir);
+
+        assertEquals(Arrays.asList("10; POSES; 10; p1", "20; POSES; 20; p2", "30; POSES; 30; p3"), readMerged());
+    }
+
+    @Test
+    public void mergesStreamsLongerThanTheWindow() throws IOException {
+        String[] poses = new String[5000];
+        String[] markers = new String[2500];
+        for (int i = 0; i < poses.length; i++) {
+            poses[i] = (2 * i) + "; p";
+        }
+        for (int i = 0; i < markers.length; i++) {
+            markers[i] = "m; " + (4 * i + 1) + "; r";
+        }
+        write("poses.csv", poses);
+        write("refMarker.csv", markers);
+
+        SessionMerger.merge(sessionDir);
+
+        List<String> merged = readMerged();
+        assertEquals(poses.length + markers.length, merged.size());
+        long previous = Long.MIN_VALUE;
+        for (String line : merged) {
+            long timestamp = Long.parseLong(line.substring(0, line.indexOf(';')));
+            assertFalse("out of order: " + line, timestamp < previous);
+            previous = timestamp;
+        }
+    }
+}
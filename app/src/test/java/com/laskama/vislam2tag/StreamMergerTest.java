@@ -0,0 +1,180 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class StreamMergerTest {
+
+    private MemorySink output;
+
+    @Before
+    public void setUp() {
+        output = new MemorySink();
+    }
+
+    private List<String> lines() {
+        return output.getLines();
+    }
+
+    @Test
+    public void mergesStreamsInTimestampOrder() throws IOException {
+        StreamMerger merger = new StreamMerger(output, StreamMerger.NO_MAX_DELAY);
+        int a = merger.addStream("A", 2);
+        int b = merger.addStream("B", 2);
+
+        merger.offer(a, 10, "a10");
+        merger.offer(a, 30, "a30");
+        // B has no record yet, nothing can be written
+        assertEquals(0, merger.getWrittenCount());
+
+        merger.offer(b, 20, "b20");
+        merger.offer(b, 40, "b40");
+        merger.finish();
+
+        assertEquals(Arrays.asList("10; A; a10", "20; B; b20", "30; A; a30", "40; B; b40"), lines());
+        assertEquals(4, merger.getWrittenCount());
+        assertEquals(0, merger.getLateCount());
+    }
+
+    @Test
+    public void reordersRecordsWithinTheWindow() throws IOException {
+        StreamMerger merger = new StreamMerger(output, StreamMerger.NO_MAX_DELAY);
+        int a = merger.addStream("A", 3);
+
+        merger.offer(a, 30, "a30");
+        merger.offer(a, 10, "a10");
+        merger.offer(a, 20, "a20");
+        merger.offer(a, 40, "a40");
+        merger.finish();
+
+        assertEquals(Arrays.asList("10; A; a10", "20; A; a20", "30; A; a30", "40; A; a40"), lines());
+        assertEquals(0, merger.getLateCount());
+    }
+
+    @Test
+    public void keepsTheOfferOrderOfEqualTimestamps() throws IOException {
+        StreamMerger merger = new StreamMerger(output, StreamMerger.NO_MAX_DELAY);
+        int a = merger.addStream("A", 8);
+        int b = merger.addStream("B", 8);
+
+        merger.offer(b, 5, "first");
+        merger.offer(a, 5, "second");
+        merger.offer(b, 5, "third");
+        merger.finish();
+
+        assertEquals(Arrays.asList("5; B; first", "5; A; second", "5; B; third"), lines());
+    }
+
+    @Test
+    public void writesAndCountsLateRecords() throws IOException {
+        StreamMerger merger = new StreamMerger(output, StreamMerger.NO_MAX_DELAY);
+        int a = merger.addStream("A", 1);
+        int b = merger.addStream("B", 1);
+
+        merger.offer(a, 100, "a100");
+        merger.offer(b, 200, "b200");
+        // a100 was written, a full window of A releases b200 once A moves past it
+        merger.offer(a, 300, "a300");
+        assertEquals(2, merger.getWrittenCount());
+
+        // older than the written records: written immediately and counted
+        merger.offer(b, 150, "b150");
+        merger.offer(b, 120, "b120");
+        merger.finish();
+
+        assertEquals(Arrays.asList("100; A; a100", "200; B; b200", "150; B; b150", "120; B; b120",
+                "300; A; a300"), lines());
+        assertEquals(2, merger.getLateCount());
+
+        List<String> stats = merger.getStatsLines();
+        assertEquals("stream; offered; late; max_lateness_ns\n", stats.get(0));
+        assertEquals("A; 2; 0; 0\n", stats.get(1));
+        assertEquals("B; 3; 2; 80\n", stats.get(2));
+    }
+
+    @Test
+    public void waitsForStreamsWithoutRecords() throws IOException {
+        StreamMerger merger = new StreamMerger(output, StreamMerger.NO_MAX_DELAY);
+        int a = merger.addStream("A", 1);
+        merger.addStream("B", 1);
+
+        for (int i = 0; i < 10; i++) {
+            merger.offer(a, i, "a" + i);
+        }
+        assertEquals(0, merger.getWrittenCount());
+        assertEquals(10, merger.getBufferedCount(a));
+    }
+
+    @Test
+    public void watermarkReleasesRecords() throws IOException {
+        StreamMerger merger = new StreamMerger(output, StreamMerger.NO_MAX_DELAY);
+        int a = merger.addStream("A", 1);
+        int b = merger.addStream("B", 1);
+
+        merger.offer(a, 10, "a10");
+        merger.offer(a, 20, "a20");
+        merger.advance(b, 15);
+        assertEquals(Arrays.asList("10; A; a10"), lines());
+
+        merger.closeStream(b);
+        assertEquals(Arrays.asList("10; A; a10", "20; A; a20"), lines());
+    }
+
+    @Test
+    public void maxDelayReleasesRecordsOfIdleStreams() throws IOException {
+        StreamMerger merger = new StreamMerger(output, 100);
+        int a = merger.addStream("A", 1000);
+        merger.addStream("B", 1000);
+
+        merger.offer(a, 0, "a0");
+        merger.offer(a, 50, "a50");
+        assertEquals(0, merger.getWrittenCount());
+
+        // records more than 100 ns behind the newest timestamp are written
+        merger.offer(a, 160, "a160");
+        assertEquals(Arrays.asList("0; A; a0", "50; A; a50"), lines());
+    }
+
+    @Test
+    public void finishWritesRemainingRecordsAndCommits() throws IOException {
+        StreamMerger merger = new StreamMerger(output, StreamMerger.NO_MAX_DELAY);
+        int a = merger.addStream("A", 1000);
+        for (int i = 0; i < 600; i++) {
+            merger.offer(a, 600 - i, "x");
+        }
+        assertEquals(0, merger.getWrittenCount());
+
+        merger.finish();
+        List<String> lines = lines();
+        assertEquals(600, lines.size());
+        for (int i = 0; i < lines.size(); i++) {
+            assertEquals((i + 1) + "; A; x", lines.get(i));
+        }
+        // every 256 records and once at the end
+        assertEquals(3, output.getCommitCount());
+        assertFalse(output.isClosed());
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round trip of WLAN scans through {@link WifiRecordWriter}, {@link WifiRecordReader} and
+ * {@link WifiCsvConverter}.
+ */
+public class WifiRecordTest {
+
+    private static final String AP1 = "0a:1b:2c:3d:4e:5f";
+    private static final String AP2 = "f0:e1:d2:c3:b4:a5";
+
+    // channel that returns only a few bytes per read, such that records span several reads
+    private static ReadableByteChannel slowChannel(byte[] bytes) {
+        ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream(bytes));
+        return new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                int limit = dst.limit();
+                dst.limit(Math.min(limit, dst.position() + 7));
+                try {
+                    return channel.read(dst);
+                } finally {
+                    dst.limit(limit);
+                }
+            }
+
+            @Override
+            public boolean isOpen() {
+                return channel.isOpen();
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+
+    private static byte[] toArray(ByteBuffer... buffers) {
+        int size = 0;
+        for (ByteBuffer b : buffers) {
+            size += b.remaining();
+        }
+        ByteBuffer all = ByteBuffer.allocate(size);
+        for (ByteBuffer b : buffers) {
+            all.put(b);
+        }
+        return all.array();
+    }
+
+    // two scans, the SSID of AP1 changes in the second one
+    private static byte[] writeTwoScans() {
+        WifiRecordWriter writer = new WifiRecordWriter();
+        writer.beginScan(0, 5_000_000, 5_000_000);
+        assertTrue(writer.addAccessPoint(AP1, "home", -40, 2412, 0, 2412, 0, false, 4_990_000));
+        assertTrue(writer.addAccessPoint(AP2, "office", -71, 5180, 2, 5210, 0, true, 4_800_000));
+        writer.endScan();
+        ByteBuffer first = writer.takeBytes();
+
+        writer.beginScan(1, 6_000_000, 6_000_000);
+        assertTrue(writer.addAccessPoint(AP1, "home-5g", -45, 5745, 1, 5755, 0, false, 5_999_000));
+        writer.endScan();
+        ByteBuffer second = writer.takeBytes();
+
+        assertEquals(2, writer.getScanCount());
+        assertEquals(3, writer.getAccessPointCount());
+        assertEquals(2, writer.getDictionarySize());
+        return toArray(first, second);
+    }
+
+    @Test
+    public void readsWhatWasWritten() throws IOException {
+        try (WifiRecordReader reader = new WifiRecordReader(slowChannel(writeTwoScans()))) {
+            assertTrue(reader.nextScan());
+            assertEquals(0, reader.getScan());
+            assertEquals(5_000_000, reader.getScanTime());
+            assertEquals(2, reader.getAccessPointCount());
+            assertEquals(AP1, reader.getBssid(0));
+            assertEquals("home", reader.getSsid(0));
+            assertEquals(-40, reader.getLevel(0));
+            assertEquals(2412, reader.getFrequency(0));
+            assertEquals(4_990_000, reader.getTimestamp(0));
+            assertEquals(10_000, reader.getAge(0));
+            assertFalse(reader.is80211mcResponder(0));
+            assertEquals(AP2, reader.getBssid(1));
+            assertEquals("office", reader.getSsid(1));
+            assertEquals(-71, reader.getLevel(1));
+            assertEquals(5180, reader.getFrequency(1));
+            assertEquals(2, reader.getChannelWidth(1));
+            assertEquals(5210, reader.getCenterFreq0(1));
+            assertEquals(0, reader.getCenterFreq1(1));
+            assertTrue(reader.is80211mcResponder(1));
+            assertEquals(4_800_000, reader.getTimestamp(1));
+
+            assertTrue(reader.nextScan());
+            assertEquals(1, reader.getScan());
+            assertEquals(1, reader.getAccessPointCount());
+            assertEquals(0, reader.getId(0));
+            assertEquals("home-5g", reader.getSsid(0));
+            assertEquals(5745, reader.getFrequency(0));
+
+            assertFalse(reader.nextScan());
+            assertEquals(2, reader.getDictionarySize());
+        }
+    }
+
+    @Test
+    public void skipsAccessPointsThatCanNotBeStored() throws IOException {
+        WifiRecordWriter writer = new WifiRecordWriter();
+        long base = 3_000_000_000L;
+        writer.beginScan(0, base, base);
+        assertFalse(writer.addAccessPoint("not a bssid", "x", -50, 2412, 0, 0, 0, false, base));
+        // offsets beyond an int (about 35 minutes) would wrap
+        assertFalse(writer.addAccessPoint(AP1, "old", -50, 2412, 0, 0, 0, false, base - (1L << 31) - 1));
+        assertFalse(writer.addAccessPoint(AP1, "future", -50, 2412, 0, 0, 0, false, base + (1L << 31)));
+        assertTrue(writer.addAccessPoint(AP2, "ok", -50, 2412, 0, 0, 0, false, base - Integer.MAX_VALUE));
+        writer.endScan();
+        assertEquals(3, writer.getSkippedCount());
+
+        try (WifiRecordReader reader = new WifiRecordReader(slowChannel(toArray(writer.takeBytes())))) {
+            assertTrue(reader.nextScan());
+            assertEquals(1, reader.getAccessPointCount());
+            assertEquals(AP2, reader.getBssid(0));
+            assertEquals(base - Integer.MAX_VALUE, reader.getTimestamp(0));
+        }
+    }
+
+    @Test
+    public void ignoresATruncatedLastScan() throws IOException {
+        byte[] bytes = writeTwoScans();
+        // every cut within the second scan (header or access point) drops only that scan
+        int secondScanSize = WifiRecordFormat.SCAN_HEADER_SIZE + WifiRecordFormat.ACCESS_POINT_SIZE;
+        for (int cut = 1; cut < secondScanSize; cut++) {
+            byte[] truncated = Arrays.copyOf(bytes, bytes.length - cut);
+            try (WifiRecordReader reader = new WifiRecordReader(slowChannel(truncated))) {
+                assertTrue(reader.nextScan());
+                assertEquals(0, reader.getScan());
+                assertFalse("cut " + cut, reader.nextScan());
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherVersions() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(WifiRecordFormat.HEADER_SIZE).order(WifiRecordFormat.BYTE_ORDER);
+        header.putInt(WifiRecordFormat.MAGIC);
+        header.putShort((short) (WifiRecordFormat.VERSION + 1));
+        header.flip();
+        new WifiRecordReader(slowChannel(toArray(header)));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        new WifiRecordReader(slowChannel("scan; timestamp\n".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void convertsToTheCsvLayout() throws IOException {
+        File dir = Files.createTempDirectory("wifi").toFile();
+        File binFile = new File(dir, "wifi.bin");
+        File csvFile = new File(dir, "wifi.csv");
+        try {
+            try (OutputStream outputStream = new FileOutputStream(binFile)) {
+                outputStream.write(writeTwoScans());
+            }
+
+            assertEquals(3, WifiCsvConverter.convert(binFile, csvFile));
+            List<String> lines = Files.readAllLines(csvFile.toPath(), StandardCharsets.UTF_8);
+            assertEquals(Arrays.asList(
+                    "0; 4990000; WLAN; home; " + AP1 + "; -40; 4990000000; 2412; 0; 2412; 0; 0; 10000",
+                    "0; 4800000; WLAN; office; " + AP2 + "; -71; 4800000000; 5180; 2; 5210; 0; 1; 200000",
+                    "1; 5999000; WLAN; home-5g; " + AP1 + "; -45; 5999000000; 5745; 1; 5755; 0; 0; 1000"),
+                    lines);
+        } finally {
+            binFile.delete();
+            csvFile.delete();
+            dir.delete();
+        }
+    }
+}
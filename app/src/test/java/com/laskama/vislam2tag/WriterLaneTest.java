@@ -0,0 +1,122 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.laskama.vislam2tag;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WriterLaneTest {
+
+    private static RecordBatch lines(String... lines) {
+        return sink -> {
+            for (String line : lines) {
+                sink.write(line + "\n");
+            }
+        };
+    }
+
+    // writes a part of a record before it fails
+    private static RecordBatch failing(IOException error) {
+        return sink -> {
+            sink.write("torn; ");
+            throw error;
+        };
+    }
+
+    @Test
+    public void writesTheBatchesInOrderAndClosesTheSink() throws InterruptedException {
+        MemorySink sink = new MemorySink();
+        WriterLane lane = new WriterLane("test", sink, 16, 50);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(lane.submit(lines(i + "; a", i + "; b")));
+        }
+
+        lane.close();
+
+        assertEquals(200, sink.getLines().size());
+        assertEquals("99; b", sink.getLines().get(199));
+        assertEquals(sink.getText(), sink.getCommittedText());
+        assertEquals(100, lane.getWrittenCount());
+        assertEquals(0, lane.getFailedCount());
+        assertNull(lane.getLastError());
+        assertTrue(sink.isClosed());
+    }
+
+    @Test
+    public void rollsBackAFailedBatch() throws InterruptedException {
+        MemorySink sink = new MemorySink();
+        WriterLane lane = new WriterLane("test", sink, 16, 50);
+        IOException error = new IOException("disk full");
+
+        lane.submit(lines("1; a"));
+        lane.submit(failing(error));
+        lane.submit(lines("2; b"));
+        lane.close();
+
+        assertEquals("1; a\n2; b\n", sink.getCommittedText());
+        assertEquals(2, lane.getWrittenCount());
+        assertEquals(1, lane.getFailedCount());
+        assertSame(error, lane.getLastError());
+        assertTrue(sink.isClosed());
+    }
+
+    @Test
+    public void stopsCommittingIfTheRollbackFails() throws InterruptedException {
+        MemorySink sink = new MemorySink() {
+            @Override
+            public void rollback(long length) {
+                throw new IllegalStateException("rollback failed");
+            }
+        };
+        WriterLane lane = new WriterLane("test", sink, 16, 50);
+
+        lane.submit(lines("1; a"));
+        // the lane thread commits the first batch before the next ones are submitted
+        while (sink.getCommitCount() == 0) {
+            Thread.yield();
+        }
+        lane.submit(failing(new IOException("disk full")));
+        lane.submit(lines("2; b"));
+        lane.close();
+
+        // the file keeps its last consistent state and is left to the recovery
+        assertEquals("1; a\n", sink.getCommittedText());
+        assertEquals(1, lane.getWrittenCount());
+        assertEquals(2, lane.getFailedCount());
+        assertEquals("rollback failed", lane.getLastError().getMessage());
+        assertFalse(sink.isClosed());
+    }
+
+    @Test
+    public void dropsBatchesAfterClose() throws InterruptedException {
+        MemorySink sink = new MemorySink();
+        WriterLane lane = new WriterLane("test", sink, 16, 50);
+        lane.close();
+
+        assertFalse(lane.submit(lines("1; a")));
+
+        assertEquals(1, lane.getDroppedCount());
+        assertEquals("", sink.getText());
+    }
+}
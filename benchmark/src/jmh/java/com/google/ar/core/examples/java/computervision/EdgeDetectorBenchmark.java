@@ -0,0 +1,99 @@
+/*
+ * Copyright 2022 Marius Laska
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the edge detection of a camera image by {@link EdgeDetector} (reused buffers, parallel
+ * row stripes) with the original implementation ({@link LegacyEdgeDetector}).
+ *
+ * <p>Image sizes are given as width x height x stride, 1280x720 has padded rows like the CPU
+ * images of some devices.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EdgeDetectorBenchmark {
+
+  @Param({"640x480x640", "1280x720x1344", "1920x1080x1920"})
+  public String size;
+
+  private int width;
+  private int height;
+  private int stride;
+  private ByteBuffer input;
+
+  private LegacyEdgeDetector legacyDetector;
+  private EdgeDetector detector;
+  private EdgeDetector singleStripeDetector;
+
+  @Setup
+  public void setUp() {
+    String[] dimensions = size.split("x");
+    width = Integer.parseInt(dimensions[0]);
+    height = Integer.parseInt(dimensions[1]);
+    stride = Integer.parseInt(dimensions[2]);
+
+    // Smooth gradient with noise, such that both edge and no edge pixels occur.
+    byte[] pixels = new byte[stride * height];
+    Random random = new Random(42);
+    for (int j = 0; j < height; j++) {
+      for (int i = 0; i < stride; i++) {
+        pixels[j * stride + i] = (byte) ((i * 255) / stride + random.nextInt(64));
+      }
+    }
+    input = ByteBuffer.allocateDirect(pixels.length);
+    input.put(pixels);
+
+    legacyDetector = new LegacyEdgeDetector();
+    detector = new EdgeDetector();
+    singleStripeDetector = new EdgeDetector(1);
+
+    // The benchmark only compares implementations with identical results.
+    ByteBuffer expected = legacyDetector.detect(width, height, stride, input);
+    if (!expected.equals(detector.detect(width, height, stride, input))
+        || !expected.equals(singleStripeDetector.detect(width, height, stride, input))) {
+      throw new IllegalStateException("EdgeDetector differs from LegacyEdgeDetector for " + size);
+    }
+  }
+
+  @Benchmark
+  public ByteBuffer legacy() {
+    return legacyDetector.detect(width, height, stride, input);
+  }
+
+  @Benchmark
+  public ByteBuffer parallelStripes() {
+    return detector.detect(width, height, stride, input);
+  }
+
+  /** Without the parallel stripes, i.e. only the reused buffers and the branch free threshold. */
+  @Benchmark
+  public ByteBuffer singleStripe() {
+    return singleStripeDetector.detect(width, height, stride, input);
+  }
+}